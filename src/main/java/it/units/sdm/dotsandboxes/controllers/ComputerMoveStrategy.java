@@ -2,7 +2,29 @@ package it.units.sdm.dotsandboxes.controllers;
 
 /**
  * Enum class that contains the various strategies the computer can use when playing.
+ * In games of more than two players, the searching strategies all search with max-n or paranoid search instead.
  */
 public enum ComputerMoveStrategy {
-    RANDOM
+    /** Draws any free line. */
+    RANDOM,
+    /** Completes a box whenever it can, otherwise draws any free line. */
+    GREEDY,
+    /** Completes a box whenever it can, otherwise avoids drawing the third side of a box as long as possible. */
+    SAFE,
+    /** Searches the moves ahead with alpha-beta pruning, within a time budget. */
+    MINIMAX,
+    /** Plays random games from the position, exploring the most promising moves more, within a time budget. */
+    MCTS,
+    /**
+     * Plays like MINIMAX, but solves the endgame exactly as soon as it reduces to chains and loops, and tries to
+     * solve the positions with few free lines split into independent regions.
+     */
+    ENDGAME;
+
+    /**
+     * @return true if the strategy searches for the best move, so it plays perfectly whenever a tablebase is available.
+     */
+    public boolean isSearching() {
+        return this == MINIMAX || this == MCTS || this == ENDGAME;
+    }
 }
@@ -6,18 +6,31 @@ import it.units.sdm.dotsandboxes.exceptions.UserHasRequestedQuit;
 import it.units.sdm.dotsandboxes.views.IGameView;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
 
 /**
  * Controller class that contains all the game's logic, such as the order of turns and end game conditions.
  */
 public class IGameController {
 
+    // the time the computer can spend choosing a move
+    private static final Duration COMPUTER_MOVE_TIME_BUDGET = Duration.ofSeconds(1);
+    // whether the computer keeps searching while the player thinks, disabled with -Ddotsandboxes.ponder=false
+    private static final boolean COMPUTER_PONDERS = Boolean.parseBoolean(System.getProperty("dotsandboxes.ponder", "true"));
     private final IGameView view;
     private Game game;
     private GameMode gamemode;
     private ComputerMoveStrategy computerMoveStrategy;
+    private SearchResult lastSearchResult;
+    // the token of the search of the computer's move in progress, cancelled if the player quits meanwhile
+    private volatile CancelToken computerSearchCancelToken;
     private boolean isInitialized;
     private boolean setUpIsDone;
     private boolean gameIsOver;
@@ -74,15 +87,31 @@ public class IGameController {
     }
 
     private void setUpGameVsComputer() {
-        int playerCount = 2;
+        // the player plays first against one computer, or against several taking the other seats in turn
+        int playerCount = getValidPlayerCount();
         SequencedCollection<String> players = new ArrayList<>(playerCount);
         players.add(getPlayerName(1));
-        players.add("CPU");
-        computerMoveStrategy = ComputerMoveStrategy.RANDOM;
+        if (playerCount == 2) {
+            players.add("CPU");
+        } else {
+            for (int computerIndex = 1; computerIndex < playerCount; computerIndex++) {
+                players.add("CPU " + computerIndex);
+            }
+        }
+        computerMoveStrategy = ComputerMoveStrategy.MINIMAX;
         finishGameSetup(players);
     }
 
     private void setUpGameVsPlayer() {
+        int playerCount = getValidPlayerCount();
+        SequencedCollection<String> players = new ArrayList<>(playerCount);
+        for (int playerIndex = 1; playerIndex <= playerCount; playerIndex++) {
+            players.add(getPlayerName(playerIndex));
+        }
+        finishGameSetup(players);
+    }
+
+    private int getValidPlayerCount() {
         int playerCount;
         do {
             playerCount = getPlayerCount();
@@ -93,11 +122,7 @@ public class IGameController {
                 sendWarning("Too many players! Max amount is " + Color.values().length);
             }
         } while (playerCount < 2 || playerCount > Color.values().length);
-        SequencedCollection<String> players = new ArrayList<>(playerCount);
-        for (int playerIndex = 1; playerIndex <= playerCount; playerIndex++) {
-            players.add(getPlayerName(playerIndex));
-        }
-        finishGameSetup(players);
+        return playerCount;
     }
 
     private void finishGameSetup(SequencedCollection<String> players) {
@@ -146,11 +171,20 @@ public class IGameController {
             if (game.getCurrentPlayerIndex() + 1 == 1) {
                 refreshUISem.release();
                 view.signalWhenUIRefreshed();
+                // several computers move before the player again, so a search of the position would be of no use
+                final ComputerAgent.Pondering pondering = COMPUTER_PONDERS && game.players().size() == 2
+                        ? ComputerAgent.startPondering(computerMoveStrategy, game.board()) : null;
                 try {
                     Line line = getAction();
-                    makeMove(line);
+                    if (line != null) {
+                        makeMove(line);
+                    }
                 } catch (InvalidInputException e) {
                     sendWarning(e.getMessage());
+                } finally {
+                    if (pondering != null) {
+                        pondering.stop();
+                    }
                 }
             } else {
                 makeGeneratedMove();
@@ -172,7 +206,9 @@ public class IGameController {
             refreshUISem.release();
             try {
                 Line line = getAction();
-                makeMove(line);
+                if (line != null) {
+                    makeMove(line);
+                }
             } catch (InvalidInputException e) {
                 sendWarning(e.getMessage());
             }
@@ -184,12 +220,24 @@ public class IGameController {
         endGame();
     }
 
+    /**
+     * @return the outcome of the search of the last computer-generated move, including the number of positions visited,
+     * the depth reached and the principal variation, or null if the computer has not moved yet.
+     */
+    public SearchResult getLastSearchResult() {
+        return lastSearchResult;
+    }
+
     private void makeGeneratedMove(){
         /* In theory, computer-generated moves should always be valid. For this reason, we can suppose this method never throws.
          * If it does, the game must crash, as it means the computer-generation algorithm is wrong and should be fixed.
          */
         try {
-            makeMove(ComputerAgent.generateMove(computerMoveStrategy, game.board()));
+            computerSearchCancelToken = new CancelToken();
+            lastSearchResult = ComputerAgent.generateMove(computerMoveStrategy, game.board(), game.players().size(),
+                    System.nanoTime() + COMPUTER_MOVE_TIME_BUDGET.toNanos(), computerSearchCancelToken);
+            computerSearchCancelToken = null;
+            makeMove(game.board().lineOf(lastSearchResult.move()));
         } catch (InvalidInputException e) {
             throw new RuntimeException("The CPU generated an invalid move. " + e);
         }
@@ -228,9 +276,10 @@ public class IGameController {
     }
 
     /**
-     * Wait to receive an event from the player.
+     * Wait to receive an event from the player. Requests to undo or redo a move are carried out directly.
      *
-     * @return the Line being played in the current turn by the playing Player (determined by the game instance).
+     * @return the Line being played in the current turn by the playing Player (determined by the game instance),
+     * or null if the player has undone or redone a move instead.
      * @see Game#makeNextMove(Line)
      * @throws UserHasRequestedQuit if the user wants to quit the game.
      * @throws InvalidInputException if something unexpected happened in the entire chain of input.
@@ -252,6 +301,14 @@ public class IGameController {
             endGame();
             throw new UserHasRequestedQuit();
         }
+        if ("undo".equals(input)) {
+            undoMove();
+            return null;
+        }
+        if ("redo".equals(input)) {
+            redoMove();
+            return null;
+        }
         final List<String> coords = List.of(input.split(" "));
         if (coords.size() != 4) {
             throw new InvalidInputException("Invalid input. Please enter four space-separated coordinates");
@@ -262,7 +319,25 @@ public class IGameController {
 
     final void makeMove(Line line) throws InvalidInputException {
         game.makeNextMove(line);
-        game.updateScore();
+    }
+
+    private void undoMove() throws InvalidInputException {
+        if (!game.undoMove()) {
+            throw new InvalidInputException("There are no moves to undo");
+        }
+        if (gamemode == GameMode.PVE) {
+            // the computer replies right away, so its moves are taken back too until it is the player's turn again
+            while (game.getCurrentPlayerIndex() != 0 && game.undoMove()) ;
+        }
+    }
+
+    private void redoMove() throws InvalidInputException {
+        if (!game.redoMove()) {
+            throw new InvalidInputException("There are no moves to redo");
+        }
+        if (gamemode == GameMode.PVE) {
+            while (game.getCurrentPlayerIndex() != 0 && game.redoMove()) ;
+        }
     }
 
     /**
@@ -323,6 +398,11 @@ public class IGameController {
      */
     public void writeInput(String input) {
         this.input = input;
+        final CancelToken cancelToken = computerSearchCancelToken;
+        if ("quit".equals(input) && cancelToken != null) {
+            // the quit request is handled right after the computer's move, which is cut short
+            cancelToken.cancel();
+        }
     }
 
     /**
@@ -358,48 +438,268 @@ public class IGameController {
 
 }
 
+/**
+ * Class that chooses the moves of the computer with the {@link MoveEngine} registered for each strategy.
+ */
 class ComputerAgent {
 
+    private static final int TRANSPOSITION_TABLE_MEGABYTES = 32;
+    // the threads searching with alpha-beta, one per core unless configured with -Ddotsandboxes.alphabeta.threads=<count>
+    private static final int ALPHA_BETA_THREADS = Integer.getInteger("dotsandboxes.alphabeta.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int MONTE_CARLO_MAX_NODES = 1 << 20;
+    private static final long MONTE_CARLO_MAX_PLAYOUTS = Long.MAX_VALUE;
+    // the threads searching with MCTS, one per core unless configured with -Ddotsandboxes.mcts.threads=<count>
+    private static final int MONTE_CARLO_THREADS = Integer.getInteger("dotsandboxes.mcts.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int CHAIN_ANALYZER_MAX_MEMO_SIZE = 1 << 18;
+    // shared by all the searches, as the value of a position does not depend on the game it belongs to
+    private static final TranspositionTable TRANSPOSITION_TABLE = new TranspositionTable(TRANSPOSITION_TABLE_MEGABYTES);
+    private static final ChainAnalyzer CHAIN_ANALYZER = new ChainAnalyzer(CHAIN_ANALYZER_MAX_MEMO_SIZE);
+    private static final int REGION_VALUE_CACHE_SIZE = 1 << 20;
+    // the most free lines of a position the region solver is given, which it solves within about half a second
+    private static final int REGION_SOLVER_MAX_FREE_LINES = 18;
+    // shared by all the games, as the region key does not depend on the size of the board
+    private static final RegionValueCache REGION_VALUE_CACHE = new RegionValueCache(REGION_VALUE_CACHE_SIZE);
+    // the directory holding the endgame tablebases, configured with -Ddotsandboxes.tablebases=<directory>
+    private static final Path TABLEBASE_DIRECTORY = Path.of(System.getProperty("dotsandboxes.tablebases", "tablebases"));
+    // the tablebase of each board size, keyed by height and width, opened on first use and empty if there is none
+    private static final Map<List<Integer>, Optional<EndgameTablebase>> TABLEBASES = new ConcurrentHashMap<>();
+    // the evaluation of the positions alpha-beta cuts off, read at startup from -Ddotsandboxes.evaluation=<file> if it exists
+    private static final Evaluation EVALUATION = loadEvaluation(
+            Path.of(System.getProperty("dotsandboxes.evaluation", EvaluationTuner.DEFAULT_FILE)));
+    // how searching strategies play games of more than two players, configured with -Ddotsandboxes.multiplayer=max_n|paranoid
+    private static final MultiPlayerSearch.Mode MULTI_PLAYER_MODE = MultiPlayerSearch.Mode.valueOf(
+            System.getProperty("dotsandboxes.multiplayer", "paranoid").toUpperCase(Locale.ROOT));
+    private static final Map<ComputerMoveStrategy, MoveEngine> ENGINES = new EnumMap<>(ComputerMoveStrategy.class);
+
+    static {
+        register(ComputerMoveStrategy.RANDOM, simpleEngine(ComputerAgent::generateRandomMove));
+        register(ComputerMoveStrategy.GREEDY, simpleEngine(ComputerAgent::generateGreedyMove));
+        register(ComputerMoveStrategy.SAFE, simpleEngine(ComputerAgent::generateSafeMove));
+        register(ComputerMoveStrategy.MINIMAX, ComputerAgent::searchWithAlphaBeta);
+        register(ComputerMoveStrategy.MCTS, ComputerAgent::searchWithMonteCarlo);
+        register(ComputerMoveStrategy.ENDGAME, ComputerAgent::searchEndgame);
+    }
+
     private ComputerAgent(){}
 
-    public static Line generateMove(ComputerMoveStrategy strategy, Board board) {
-        return switch (strategy) {
-            case RANDOM -> generateRandomMove(board);
-        };
+    /**
+     * Registers the engine choosing the moves of a strategy, replacing the previous one.
+     *
+     * @param strategy the strategy.
+     * @param engine the engine following it.
+     */
+    static synchronized void register(ComputerMoveStrategy strategy, MoveEngine engine) {
+        ENGINES.put(strategy, Objects.requireNonNull(engine));
     }
 
-    private static Line generateRandomMove(Board board) {
-        Line candidate;
-        boolean lineAlreadyExists;
-        do {
-            candidate = generateRandomCandidate(board);
-            final Line finalCandidate = candidate;
-            lineAlreadyExists = board.lines().parallelStream().anyMatch(l -> l.hasSameEndpointsAs(finalCandidate));
-        } while (lineAlreadyExists);
-        return candidate;
+    /**
+     * @param strategy the strategy.
+     * @return the engine registered for the strategy.
+     */
+    static synchronized MoveEngine engineOf(ComputerMoveStrategy strategy) {
+        return ENGINES.get(strategy);
     }
 
-    private static Line generateRandomCandidate(Board board) {
-        Line candidate;
-        Point p1 = new Point((int) Math.floor(Math.random() * (board.width())), (int) Math.floor(Math.random() * (board.height())));
-        Point p2;
-        do {
-            if (Math.random() >= 0.5) {
-                p2 = new Point(p1.x(), p1.y() + (Math.random() >= 0.5 ? 1 : -1));
-            } else {
-                p2 = new Point(p1.x() + (Math.random() >= 0.5 ? 1 : -1), p1.y());
+    /**
+     * Searches for a move with the engine of the strategy, answering from the tablebase of the board size first
+     * if the strategy is a searching one.
+     *
+     * @param strategy the strategy to follow.
+     * @param board the board to play on.
+     * @param deadlineNanos the time, compared with {@link System#nanoTime()}, by which searching strategies must answer.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the outcome of the search, whose move is always valid on a board that is not full, even if the search
+     * has been cancelled.
+     */
+    public static SearchResult generateMove(ComputerMoveStrategy strategy, Board board, long deadlineNanos,
+                                            CancelToken cancelToken) {
+        if (strategy.isSearching() && board.freeLineCount() > 0) {
+            final Optional<EndgameTablebase> tablebase = tablebaseFor(board);
+            if (tablebase.isPresent()) {
+                return tablebase.get().search(board);
             }
-        } while (!isValidPoint(p2.x(), p2.y(), board));
+        }
+        final SearchResult result = engineOf(strategy).search(board, deadlineNanos, cancelToken);
+        if (result.move() == -1 && board.freeLineCount() > 0) {
+            // the search has been cancelled before finding a move
+            return engineOf(ComputerMoveStrategy.SAFE).search(board, deadlineNanos, cancelToken);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the move of a computer in a game of any number of players. Games of two players are left to
+     * {@link #generateMove(ComputerMoveStrategy, Board, long, CancelToken)}, while in the others searching strategies
+     * search with {@link MultiPlayerSearch}, as the engines registered for them assume players alternate.
+     *
+     * @param strategy the strategy to follow.
+     * @param board the board to play on.
+     * @param playerCount the number of players of the game, the computer being the one to move.
+     * @param deadlineNanos the time, compared with {@link System#nanoTime()}, by which searching strategies must answer.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the outcome of the search, whose move is always valid on a board that is not full, even if the search
+     * has been cancelled.
+     */
+    public static SearchResult generateMove(ComputerMoveStrategy strategy, Board board, int playerCount,
+                                            long deadlineNanos, CancelToken cancelToken) {
+        if (playerCount == 2) {
+            return generateMove(strategy, board, deadlineNanos, cancelToken);
+        }
+        if (!strategy.isSearching()) {
+            return engineOf(strategy).search(board, deadlineNanos, cancelToken);
+        }
+        if (!board.isHuge() && board.freeLineCount() > 0) {
+            final SearchResult result = new MultiPlayerSearch(board, playerCount, MULTI_PLAYER_MODE)
+                    .search(deadlineNanos, cancelToken);
+            if (result.move() != -1) {
+                return result;
+            }
+        }
+        // huge boards cannot be searched, and a cancelled search may not have found a move
+        return engineOf(ComputerMoveStrategy.SAFE).search(board, deadlineNanos, cancelToken);
+    }
+
+    /**
+     * Starts searching the position on a virtual thread while the opponent thinks, without a deadline.
+     * The search fills the transposition table shared with {@link #generateMove}, so that whatever line the opponent
+     * draws, the search of the resulting position finds the subtree explored meanwhile and goes deeper in the same time.
+     *
+     * @param strategy the strategy the computer follows.
+     * @param board the board the opponent is about to play on, which is copied and never modified.
+     * @return the running search, or null if the strategy has nothing to gain from pondering.
+     */
+    static Pondering startPondering(ComputerMoveStrategy strategy, Board board) {
+        if ((strategy != ComputerMoveStrategy.MINIMAX && strategy != ComputerMoveStrategy.ENDGAME) || board.isHuge()
+                || board.freeLineCount() == 0 || tablebaseFor(board).isPresent()) {
+            return null;
+        }
+        final AlphaBetaSearch search = new AlphaBetaSearch(board, TRANSPOSITION_TABLE, EVALUATION);
+        final CancelToken cancelToken = new CancelToken();
+        return new Pondering(cancelToken,
+                Thread.ofVirtual().name("cpu-pondering").start(() -> search.search(Long.MAX_VALUE, cancelToken)));
+    }
+
+    /**
+     * A search running while the opponent thinks.
+     */
+    record Pondering(CancelToken cancelToken, Thread thread) {
+
+        /**
+         * Stops the search and waits for it to return, so that it no longer competes with the next one.
+         */
+        void stop() {
+            cancelToken.cancel();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static SearchResult searchWithAlphaBeta(Board board, long deadlineNanos, CancelToken cancelToken) {
+        if (board.isHuge()) {
+            // huge boards cannot be searched, as not even the first iteration would complete in time
+            return engineOf(ComputerMoveStrategy.SAFE).search(board, deadlineNanos, cancelToken);
+        }
         try {
-            candidate = new Line(p1.x(), p1.y(), p2.x(), p2.y());
-        } catch (InvalidInputException e) {
+            return new ParallelAlphaBetaSearch(board, TRANSPOSITION_TABLE, EVALUATION, ALPHA_BETA_THREADS)
+                    .search(deadlineNanos, cancelToken);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static SearchResult searchWithMonteCarlo(Board board, long deadlineNanos, CancelToken cancelToken) {
+        if (board.isHuge()) {
+            return engineOf(ComputerMoveStrategy.SAFE).search(board, deadlineNanos, cancelToken);
+        }
+        try {
+            return new ParallelMonteCarloTreeSearch(board, MONTE_CARLO_MAX_NODES, MONTE_CARLO_THREADS)
+                    .search(deadlineNanos, MONTE_CARLO_MAX_PLAYOUTS, cancelToken);
+        } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        return candidate;
     }
 
-    private static boolean isValidPoint(int x, int y, Board board) {
-        return x >= 0 && x < board.width() && y >= 0 && y < board.height();
+    private static SearchResult searchEndgame(Board board, long deadlineNanos, CancelToken cancelToken) {
+        if (!board.isHuge() && ChainAnalyzer.qualifies(board)) {
+            final SearchResult result = CHAIN_ANALYZER.analyze(board, deadlineNanos, cancelToken);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (!board.isHuge() && board.freeLineCount() > 0 && board.freeLineCount() <= REGION_SOLVER_MAX_FREE_LINES
+                && new RegionDecomposition(board).decompose() > 1) {
+            // the regions get half of the time left, so that alpha-beta can still search if they are not solved
+            final long now = System.nanoTime();
+            final SearchResult result = new RegionSolver(REGION_VALUE_CACHE)
+                    .solve(board, now + (deadlineNanos - now) / 2, cancelToken);
+            if (result != null) {
+                return result;
+            }
+        }
+        return searchWithAlphaBeta(board, deadlineNanos, cancelToken);
+    }
+
+    /**
+     * @return an engine playing the line chosen by the given function, in no time.
+     */
+    private static MoveEngine simpleEngine(ToIntFunction<Board> moveGenerator) {
+        return (board, deadlineNanos, cancelToken) -> {
+            final long start = System.nanoTime();
+            final int move = moveGenerator.applyAsInt(board);
+            return new SearchResult(move, 0, 0, 1, System.nanoTime() - start, move == -1 ? new int[0] : new int[]{move});
+        };
+    }
+
+    private static Optional<EndgameTablebase> tablebaseFor(Board board) {
+        if (!EndgameTablebase.supports(board.height(), board.width())) {
+            return Optional.empty();
+        }
+        return TABLEBASES.computeIfAbsent(List.of(board.height(), board.width()), size -> {
+            final Path file = EndgameTablebase.fileFor(TABLEBASE_DIRECTORY, board.height(), board.width());
+            try {
+                return Files.isReadable(file) ? Optional.of(EndgameTablebase.open(file)) : Optional.empty();
+            } catch (IOException e) {
+                // an unreadable table is ignored, so the position is searched instead
+                return Optional.empty();
+            }
+        });
+    }
+
+    private static Evaluation loadEvaluation(Path file) {
+        try {
+            return Files.isReadable(file) ? Evaluation.load(file) : Evaluation.DEFAULT;
+        } catch (IOException e) {
+            // invalid weights are ignored, so positions are evaluated as if none had been fitted
+            return Evaluation.DEFAULT;
+        }
+    }
+
+    private static int generateRandomMove(Board board) {
+        return board.randomFreeLine(ThreadLocalRandom.current());
     }
-}
 
+    private static int generateGreedyMove(Board board) {
+        if (board.isHuge()) {
+            // huge boards do not group their boxes by sides, so captures cannot be found without scanning them
+            return generateRandomMove(board);
+        }
+        final int capturingLine = board.capturingLine();
+        return capturingLine != -1 ? capturingLine : generateRandomMove(board);
+    }
+
+    private static int generateSafeMove(Board board) {
+        if (board.isHuge()) {
+            return generateRandomMove(board);
+        }
+        int line = board.capturingLine();
+        if (line == -1) {
+            line = board.randomSafeLine(ThreadLocalRandom.current());
+        }
+        return line != -1 ? line : generateRandomMove(board);
+    }
+}
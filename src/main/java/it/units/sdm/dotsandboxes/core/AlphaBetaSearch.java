@@ -0,0 +1,312 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.Arrays;
+
+/**
+ * Class that searches for the best move of a position with negamax alpha-beta and iterative deepening.
+ * <p>
+ * Players alternate after every line and whoever draws a line is credited for the boxes it completes, so the value of
+ * a move is the number of boxes it completes minus the value of the resulting position for the opponent.
+ * The search works on a private copy of the board, placing and removing lines in place, and tries the moves
+ * completing a box first, then the safe ones and finally those drawing the third side of a box.
+ * It returns the best move of the deepest iteration completed before the deadline, or before it is cancelled.
+ * <p>
+ * A {@link TranspositionTable} can be shared across searches. The value of a position only depends on the lines drawn,
+ * so positions are stored under their {@link Board#canonicalHash() canonical hash}, with their best move translated
+ * into the canonical form: a position and all its reflections and rotations share the same entry.
+ * <p>
+ * Positions whose search is cut off are estimated by an {@link Evaluation}, {@link Evaluation#DEFAULT} unless given.
+ */
+public class AlphaBetaSearch {
+
+    // how many nodes are visited between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 10;
+    private final Board board;
+    private final TranspositionTable table;
+    private final Evaluation evaluation;
+    private final FeatureExtractor featureExtractor;
+    private final double[] features = new double[Evaluation.FEATURE_COUNT];
+    // distinguishes the positions of boards of different sizes sharing the same table
+    private final long sizeKey;
+    private final int infinity;
+    // the moves of each ply, in search order, allocated when the search first reaches the ply
+    private final int[][] moves;
+    // the principal variations found from each ply on, with their lengths, allocated along with the moves
+    private final int[][] principalVariations;
+    private final int[] principalVariationLengths;
+    private final int[] adjacentBoxesBuffer = new int[2];
+    private final int[] boxSideLinesBuffer = new int[4];
+    private int[] previousPrincipalVariation = new int[0];
+    private long nodes;
+    private long deadline;
+    private boolean isAborted;
+    private CancelToken cancelToken;
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public AlphaBetaSearch(Board position) {
+        this(position, null);
+    }
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param table the table storing the searched positions, or null to search without one.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public AlphaBetaSearch(Board position, TranspositionTable table) {
+        this(position, table, Evaluation.DEFAULT);
+    }
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param table the table storing the searched positions, or null to search without one.
+     * @param evaluation the evaluation of the positions whose search is cut off.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public AlphaBetaSearch(Board position, TranspositionTable table, Evaluation evaluation) {
+        this.table = table;
+        this.evaluation = evaluation;
+        sizeKey = sizeKey(position);
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        board = position.copy();
+        featureExtractor = new FeatureExtractor(board);
+        final int maxDepth = board.freeLineCount();
+        infinity = board.boxCount() + 1;
+        moves = new int[maxDepth + 1][];
+        principalVariations = new int[maxDepth + 1][];
+        principalVariationLengths = new int[maxDepth + 1];
+    }
+
+    /**
+     * Searches deeper and deeper until the deadline expires or the whole game has been explored.
+     * The first iteration always runs to completion, so that a move is found even if the deadline has already expired.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @return the outcome of the deepest completed iteration.
+     */
+    public SearchResult search(long deadlineNanos) {
+        return search(deadlineNanos, new CancelToken());
+    }
+
+    /**
+     * Searches deeper and deeper until the deadline expires, the search is cancelled or the whole game has been
+     * explored. The first iteration always runs to completion unless the search is cancelled, so that a move is found
+     * even if the deadline has already expired.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the outcome of the deepest completed iteration, with a move of -1 if none has been completed.
+     */
+    public SearchResult search(long deadlineNanos, CancelToken cancelToken) {
+        if (table != null && board.freeLineCount() > 0) {
+            table.newSearch();
+        }
+        return iterate(deadlineNanos, cancelToken, 1);
+    }
+
+    /**
+     * Searches deeper and deeper from the given depth on, without starting a new search in the transposition table,
+     * so that several searches of the same position can run at once on the same table.
+     * Only an iteration at depth 1 cannot be aborted.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @param firstDepth the depth of the first iteration.
+     * @return the outcome of the deepest completed iteration, with a move of -1 if none has been completed.
+     */
+    SearchResult iterate(long deadlineNanos, CancelToken cancelToken, int firstDepth) {
+        final long start = System.nanoTime();
+        this.cancelToken = cancelToken;
+        final int maxDepth = board.freeLineCount();
+        if (maxDepth == 0) {
+            return new SearchResult(-1, 0, 0, 0, 0, new int[0]);
+        }
+        int bestMove = -1, bestScore = 0, completedDepth = 0;
+        for (int depth = Math.min(firstDepth, maxDepth); depth <= maxDepth; depth++) {
+            // the first iteration cannot be aborted
+            deadline = depth == 1 ? Long.MAX_VALUE : deadlineNanos;
+            isAborted = cancelToken.isCancelled() || depth > 1 && System.nanoTime() - deadlineNanos >= 0;
+            if (isAborted) {
+                break;
+            }
+            final int score = negamax(depth, -infinity, infinity, 0);
+            if (isAborted) {
+                break;
+            }
+            bestScore = score;
+            bestMove = principalVariations[0][0];
+            completedDepth = depth;
+            previousPrincipalVariation = Arrays.copyOf(principalVariations[0], principalVariationLengths[0]);
+        }
+        return new SearchResult(bestMove, bestScore, completedDepth, nodes, System.nanoTime() - start,
+                previousPrincipalVariation.clone());
+    }
+
+    /**
+     * @return the private copy of the position being searched. Lines can be placed onto it between two searches,
+     * so that the moves of a game are searched one after the other without copying the board again.
+     */
+    Board board() {
+        return board;
+    }
+
+    /**
+     * @param position a position.
+     * @return the key distinguishing the positions of boards of the size of the given one in a transposition table.
+     */
+    static long sizeKey(Board position) {
+        return Board.zobristKey(-1 - (position.height() * 65599 + position.width()));
+    }
+
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        allocateBuffers(ply);
+        principalVariationLengths[ply] = 0;
+        if ((++nodes & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && (cancelToken.isCancelled() || System.nanoTime() - deadline >= 0)) {
+            isAborted = true;
+        }
+        if (isAborted || board.freeLineCount() == 0) {
+            return 0;
+        }
+        if (depth == 0) {
+            return evaluate();
+        }
+        final int originalAlpha = alpha;
+        Symmetry symmetry = null;
+        long key = 0;
+        int hintMove = ply < previousPrincipalVariation.length ? previousPrincipalVariation[ply] : -1;
+        if (table != null) {
+            symmetry = board.canonicalSymmetry();
+            key = board.symmetricHash(symmetry) ^ sizeKey;
+            final long data = table.probe(key);
+            if (data != TranspositionTable.MISS) {
+                if (TranspositionTable.move(data) != -1) {
+                    hintMove = board.transformLine(TranspositionTable.move(data), symmetry.inverse());
+                }
+                // the root is always searched, so that it has a best move
+                if (ply > 0 && TranspositionTable.depth(data) >= depth) {
+                    final int score = TranspositionTable.score(data);
+                    switch (TranspositionTable.bound(data)) {
+                        case TranspositionTable.EXACT -> {
+                            return score;
+                        }
+                        case TranspositionTable.LOWER_BOUND -> alpha = Math.max(alpha, score);
+                        case TranspositionTable.UPPER_BOUND -> beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
+                }
+            }
+        }
+        final int moveCount = orderMoves(moves[ply], hintMove);
+        int best = -infinity;
+        for (int i = 0; i < moveCount; i++) {
+            final int move = moves[ply][i];
+            final int completedBoxes = boxesCompletedBy(move);
+            board.placeLine(move, Color.RED);
+            final int score = completedBoxes - negamax(depth - 1, completedBoxes - beta, completedBoxes - alpha, ply + 1);
+            board.removeLastLine();
+            if (isAborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                principalVariations[ply][0] = move;
+                System.arraycopy(principalVariations[ply + 1], 0, principalVariations[ply], 1, principalVariationLengths[ply + 1]);
+                principalVariationLengths[ply] = principalVariationLengths[ply + 1] + 1;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (table != null) {
+            final int bound = best <= originalAlpha ? TranspositionTable.UPPER_BOUND
+                    : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+            table.store(key, board.transformLine(principalVariations[ply][0], symmetry), best, depth, bound);
+        }
+        return best;
+    }
+
+    /**
+     * Allocates the buffers of the given ply the first time the search reaches it, or when the board has been given
+     * back lines since, so that only the plies iterative deepening actually reaches take memory.
+     */
+    private void allocateBuffers(int ply) {
+        final int freeLineCount = board.freeLineCount();
+        if (moves[ply] == null || moves[ply].length < freeLineCount) {
+            moves[ply] = new int[freeLineCount];
+            principalVariations[ply] = new int[freeLineCount];
+        }
+    }
+
+    /**
+     * Estimates the value of a position whose search has been cut off with the evaluation, within the number of boxes
+     * still open so that it never looks better than a real outcome.
+     */
+    private int evaluate() {
+        featureExtractor.extract(features, evaluation.usesChainFeatures());
+        final int openBoxes = board.boxCount() - board.boxCountWithSides(4);
+        return Math.clamp(evaluation.evaluate(features), -openBoxes, openBoxes);
+    }
+
+    /**
+     * Writes the free lines into the given array: those completing a box first, then the safe ones and finally the others.
+     * The given move, found by a previous search, is moved in front.
+     *
+     * @return the number of moves.
+     */
+    private int orderMoves(int[] ordered, int hintMove) {
+        int count = 0;
+        for (int i = 0; i < board.boxCountWithSides(3); i++) {
+            board.boxSideLines(board.boxWithSides(3, i), boxSideLinesBuffer);
+            for (int side : boxSideLinesBuffer) {
+                if (!board.isLinePlaced(side) && indexOf(ordered, count, side) == -1) {
+                    ordered[count++] = side;
+                }
+            }
+        }
+        final int safeLineCount = board.safeLineCount();
+        for (int i = 0; i < safeLineCount; i++) {
+            ordered[count++] = board.freeLineAt(i);
+        }
+        for (int i = safeLineCount; i < board.freeLineCount(); i++) {
+            final int line = board.freeLineAt(i);
+            if (boxesCompletedBy(line) == 0) {
+                ordered[count++] = line;
+            }
+        }
+        final int index = indexOf(ordered, count, hintMove);
+        if (index > 0) {
+            System.arraycopy(ordered, 0, ordered, 1, index);
+            ordered[0] = hintMove;
+        }
+        return count;
+    }
+
+    private int boxesCompletedBy(int line) {
+        int completedBoxes = 0;
+        final int adjacentBoxCount = board.adjacentBoxes(line, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (board.boxSideCount(adjacentBoxesBuffer[i]) == 3) {
+                completedBoxes++;
+            }
+        }
+        return completedBoxes;
+    }
+
+    private static int indexOf(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -3,21 +3,353 @@ package it.units.sdm.dotsandboxes.core;
 import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 
 /**
  * Class modeling a Dots and Boxes board.
+ * Every possible line of the board is identified by an integer id: horizontal lines come first, ordered by row,
+ * followed by the vertical ones. The line from (x, y) to (x + 1, y) has id y * (width - 1) + x, while the line
+ * from (x, y) to (x, y + 1) has id (width - 1) * height + y * width + x. Boxes are identified by the id
+ * y * (width - 1) + x of their upper left corner (x, y).
+ * <p>
+ * A board can be turned into an immutable, versioned {@link #snapshot() snapshot}, which is cheap to take and can be
+ * read from any thread without locking. The board itself is not thread safe and must be modified by a single thread.
+ * <p>
+ * Boards with more than {@value #HUGE_BOARD_LINE_COUNT} possible lines are considered huge: they only need a few bits
+ * per line, but neither they nor snapshots index the free lines or group the boxes by their number of sides, so the
+ * methods relying on those indexes throw {@link UnsupportedOperationException} on them.
  */
 public class Board {
-    private final SequencedCollection<ColoredLine> lines;
+    /**
+     * The number of possible lines above which a board is considered huge.
+     */
+    public static final int HUGE_BOARD_LINE_COUNT = 1 << 22;
+    /**
+     * The largest number of possible lines a board can have, since lines are identified by an int.
+     */
+    public static final int MAX_LINE_COUNT = Integer.MAX_VALUE - 8;
+    private static final Color[] COLORS = Color.values();
+    private static final int PAGE_SHIFT = 10;
+    private static final int HUGE_BOARD_PAGE_SHIFT = 14;
+    private static final int INITIAL_PLACED_LINES_CAPACITY = 1024;
+    private final List<ColoredLine> lines;
     private final int height, width;
+    private final int horizontalLineCount, verticalLineCount;
+    private final int pageShift, pageMask;
+    // one bit per possible line, set when the line has been drawn. A null page has no lines
+    private final long[][] linePages;
+    // the color of each drawn line, in four bits storing its ordinal + 1 so that 0 means no line
+    private final byte[][] colorPages;
+    /* the snapshot epoch in which each page has been copied or allocated: pages from a previous epoch are referenced
+     * by a snapshot and must be copied before being modified
+     */
+    private final int[] pageEpochs;
+    private int epoch;
+    // ids of the drawn lines, in the order they have been placed. Snapshots share it, as they only read its beginning
+    private int[] placedLines;
+    private int placedLineCount;
+    // length of the beginning of the placed lines that is shared with a snapshot and must be copied before being modified
+    private int sharedPlacedLineCount;
+    private long version;
+    // exclusive or of the keys of the placed lines
+    private long zobristHash;
+    // the Zobrist hashes of the position transformed by each symmetry of the board, identity included
+    private final long[] symmetryHashes;
+    // number of boxes with 0 to 4 drawn sides
+    private final int[] boxCountsBySides;
+    // number of drawn sides of each box, not kept by huge boards
+    private final byte[] boxSides;
+    /* the boxes sorted by their number of sides: the ones with k sides occupy the positions from
+     * sideBucketStarts[k] (included) to sideBucketStarts[k + 1] (excluded). Not kept by huge boards
+     */
+    private final int[] boxesBySides;
+    private final int[] boxPositions;
+    private final int[] sideBucketStarts;
+    private final int[] adjacentBoxesBuffer = new int[2];
+    /* the ids of the lines not placed yet come first, the safe ones before the others, followed by the placed ones
+     * in placing order, while freeLinePositions holds the position of every line in it. Null on huge boards and snapshots */
+    private final int[] freeLines;
+    private final int[] freeLinePositions;
+    private int safeLineCount;
+    private final int[] safetyBoxesBuffer = new int[2];
+    private final int[] boxSideLinesBuffer = new int[4];
+    // the number of placed lines of every page
+    private final int[] pagePlacedLineCounts;
+    private final boolean isSnapshot;
+    private Board lastSnapshot;
+    private Line[] lineTable;
 
     public Board(int height, int width) {
         if (width < 2 || height < 2) {
             throw new IllegalArgumentException("Board width and height must be greater or equal than 2");
         }
+        // computed on longs, as the amount of lines of a big enough board does not fit into an int
+        final long totalLineCount = 2L * width * height - width - height;
+        if (totalLineCount > MAX_LINE_COUNT) {
+            throw new IllegalArgumentException("Board is too large, it cannot have more than " + MAX_LINE_COUNT + " lines");
+        }
         this.height = height;
         this.width = width;
-        lines = Collections.synchronizedList(new ArrayList<>());
+        horizontalLineCount = (width - 1) * height;
+        verticalLineCount = width * (height - 1);
+        final boolean isHuge = totalLineCount > HUGE_BOARD_LINE_COUNT;
+        pageShift = isHuge ? HUGE_BOARD_PAGE_SHIFT : PAGE_SHIFT;
+        pageMask = (1 << pageShift) - 1;
+        final int pageCount = (int) ((totalLineCount + pageMask) >>> pageShift);
+        linePages = new long[pageCount][];
+        colorPages = new byte[pageCount][];
+        pageEpochs = new int[pageCount];
+        pagePlacedLineCounts = new int[pageCount];
+        placedLines = new int[(int) Math.min(totalLineCount, INITIAL_PLACED_LINES_CAPACITY)];
+        final int boxCount = (width - 1) * (height - 1);
+        boxCountsBySides = new int[]{boxCount, 0, 0, 0, 0};
+        symmetryHashes = new long[Symmetry.countFor(width, height)];
+        if (isHuge) {
+            boxSides = null;
+            boxesBySides = null;
+            boxPositions = null;
+            sideBucketStarts = null;
+            freeLines = null;
+            freeLinePositions = null;
+        } else {
+            boxSides = new byte[boxCount];
+            boxesBySides = new int[boxCount];
+            boxPositions = new int[boxCount];
+            for (int box = 0; box < boxCount; box++) {
+                boxesBySides[box] = box;
+                boxPositions[box] = box;
+            }
+            sideBucketStarts = new int[]{0, boxCount, boxCount, boxCount, boxCount, boxCount};
+            freeLines = new int[(int) totalLineCount];
+            freeLinePositions = new int[(int) totalLineCount];
+            for (int id = 0; id < totalLineCount; id++) {
+                freeLines[id] = id;
+                freeLinePositions[id] = id;
+            }
+            safeLineCount = (int) totalLineCount;
+        }
+        isSnapshot = false;
+        lines = new PlacedLines();
+    }
+
+    private Board(Board source) {
+        height = source.height;
+        width = source.width;
+        horizontalLineCount = source.horizontalLineCount;
+        verticalLineCount = source.verticalLineCount;
+        pageShift = source.pageShift;
+        pageMask = source.pageMask;
+        linePages = source.linePages.clone();
+        colorPages = source.colorPages.clone();
+        pageEpochs = null;
+        pagePlacedLineCounts = source.pagePlacedLineCounts.clone();
+        placedLines = source.placedLines;
+        placedLineCount = source.placedLineCount;
+        version = source.version;
+        zobristHash = source.zobristHash;
+        symmetryHashes = source.symmetryHashes.clone();
+        boxCountsBySides = source.boxCountsBySides.clone();
+        boxSides = null;
+        boxesBySides = null;
+        boxPositions = null;
+        sideBucketStarts = null;
+        freeLines = null;
+        freeLinePositions = null;
+        isSnapshot = true;
+        lineTable = source.lineTable;
+        lines = new PlacedLines();
+    }
+
+    /**
+     * Takes an immutable snapshot of the board. The snapshot shares its storage with the board, which copies
+     * the shared parts only when it modifies them, so taking a snapshot costs a handful of references per page.
+     * Snapshots must be taken by the thread modifying the board and can then be handed over to any other thread.
+     *
+     * @return an immutable copy of the current state of the board.
+     */
+    public Board snapshot() {
+        if (isSnapshot) {
+            return this;
+        }
+        if (lastSnapshot == null || lastSnapshot.version != version) {
+            lastSnapshot = new Board(this);
+            epoch++;
+            sharedPlacedLineCount = Math.max(sharedPlacedLineCount, placedLineCount);
+        }
+        return lastSnapshot;
+    }
+
+    /**
+     * Builds a modifiable board with the same lines, placed in the same order. Unlike snapshots, copies share nothing
+     * with the original board and can also be taken from snapshots.
+     *
+     * @return a modifiable copy of the board.
+     */
+    Board copy() {
+        final Board copy = new Board(height, width);
+        for (int order = 0; order < placedLineCount; order++) {
+            copy.placeLine(placedLines[order], lineColor(placedLines[order]));
+        }
+        return copy;
+    }
+
+    /**
+     * @return the version of the board, which increases every time the board is modified.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return the Zobrist hash of the position, i.e. the exclusive or of the keys of the placed lines.
+     * It only depends on which lines have been placed, and is updated in constant time by every modification.
+     */
+    public long zobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * @return the smallest among the Zobrist hashes of the position transformed by each symmetry of the board,
+     * which is the same for all the positions that are reflections or rotations of each other. The board keeps one
+     * Zobrist hash per {@link Symmetry symmetry}, updated along with the main one, so this takes no more than a
+     * comparison per symmetry.
+     * @see #canonicalSymmetry()
+     */
+    public long canonicalHash() {
+        return symmetryHashes[canonicalSymmetry().ordinal()];
+    }
+
+    /**
+     * @return the symmetry that transforms the position into its canonical form, i.e. the one whose hash is the
+     * {@link #canonicalHash() canonical hash}. A line found in canonical form can be brought back onto this board with
+     * {@link #transformLine(int, Symmetry)} and the {@link Symmetry#inverse() inverse} symmetry.
+     */
+    public Symmetry canonicalSymmetry() {
+        int canonical = 0;
+        for (int symmetry = 1; symmetry < symmetryHashes.length; symmetry++) {
+            if (Long.compareUnsigned(symmetryHashes[symmetry], symmetryHashes[canonical]) < 0) {
+                canonical = symmetry;
+            }
+        }
+        return Symmetry.of(canonical);
+    }
+
+    /**
+     * @param symmetry a symmetry of the board.
+     * @return the Zobrist hash of the position transformed by the symmetry.
+     */
+    public long symmetricHash(Symmetry symmetry) {
+        requireSymmetryOfBoard(symmetry);
+        return symmetryHashes[symmetry.ordinal()];
+    }
+
+    /**
+     * @param id the id of a line.
+     * @param symmetry a symmetry of the board.
+     * @return the id of the line the given one is transformed into by the symmetry.
+     */
+    public int transformLine(int id, Symmetry symmetry) {
+        requireSymmetryOfBoard(symmetry);
+        return transformLine(id, symmetry.ordinal());
+    }
+
+    private int transformLine(int id, int symmetry) {
+        if (id < horizontalLineCount) {
+            return transformHorizontalLine(id % (width - 1), id / (width - 1), symmetry);
+        }
+        return transformVerticalLine((id - horizontalLineCount) % width, (id - horizontalLineCount) / width, symmetry);
+    }
+
+    /* The following methods apply the transformations of Symmetry to both endpoints of a line, already simplified,
+     * as they run for every symmetry whenever a line is placed or removed. Rows and columns are swapped
+     * only on square boards, where width and height are the same. */
+
+    /**
+     * @return the id of the line from (x, y) to (x + 1, y) once transformed by the symmetry.
+     */
+    private int transformHorizontalLine(int x, int y, int symmetry) {
+        return switch (symmetry) {
+            case 0 -> horizontalLineId(x, y);
+            case 1 -> horizontalLineId(width - 2 - x, y);
+            case 2 -> horizontalLineId(x, height - 1 - y);
+            case 3 -> horizontalLineId(width - 2 - x, height - 1 - y);
+            case 4 -> verticalLineId(y, x);
+            case 5 -> verticalLineId(width - 1 - y, x);
+            case 6 -> verticalLineId(y, width - 2 - x);
+            default -> verticalLineId(width - 1 - y, width - 2 - x);
+        };
+    }
+
+    /**
+     * @return the id of the line from (x, y) to (x, y + 1) once transformed by the symmetry.
+     */
+    private int transformVerticalLine(int x, int y, int symmetry) {
+        return switch (symmetry) {
+            case 0 -> verticalLineId(x, y);
+            case 1 -> verticalLineId(width - 1 - x, y);
+            case 2 -> verticalLineId(x, height - 2 - y);
+            case 3 -> verticalLineId(width - 1 - x, height - 2 - y);
+            case 4 -> horizontalLineId(y, x);
+            case 5 -> horizontalLineId(width - 2 - y, x);
+            case 6 -> horizontalLineId(y, width - 1 - x);
+            default -> horizontalLineId(width - 2 - y, width - 1 - x);
+        };
+    }
+
+    private int horizontalLineId(int x, int y) {
+        return y * (width - 1) + x;
+    }
+
+    private int verticalLineId(int x, int y) {
+        return horizontalLineCount + y * width + x;
+    }
+
+    private void requireSymmetryOfBoard(Symmetry symmetry) {
+        if (symmetry.ordinal() >= symmetryHashes.length) {
+            throw new IllegalArgumentException(symmetry + " is not a symmetry of a non square board.");
+        }
+    }
+
+    private void updateHashes(int id) {
+        zobristHash ^= zobristKey(id);
+        symmetryHashes[0] = zobristHash;
+        if (id < horizontalLineCount) {
+            final int x = id % (width - 1), y = id / (width - 1);
+            for (int symmetry = 1; symmetry < symmetryHashes.length; symmetry++) {
+                symmetryHashes[symmetry] ^= zobristKey(transformHorizontalLine(x, y, symmetry));
+            }
+        } else {
+            final int x = (id - horizontalLineCount) % width, y = (id - horizontalLineCount) / width;
+            for (int symmetry = 1; symmetry < symmetryHashes.length; symmetry++) {
+                symmetryHashes[symmetry] ^= zobristKey(transformVerticalLine(x, y, symmetry));
+            }
+        }
+    }
+
+    /**
+     * The random key of a line is derived from its id with the SplitMix64 finalizer, so that no table has to be kept.
+     * @param id the id of the line.
+     * @return the key of the line.
+     */
+    static long zobristKey(int id) {
+        long z = (id + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return if this board is huge, in which case boxes are not grouped by their number of sides.
+     */
+    public boolean isHuge() {
+        return boxSides == null && !isSnapshot;
+    }
+
+    /**
+     * @return if this board is an immutable snapshot.
+     */
+    public boolean isSnapshot() {
+        return isSnapshot;
     }
 
     /**
@@ -28,10 +360,11 @@ public class Board {
         if (p.x() < 0 || p.x() >= width || p.y() < 0 || p.y() >= height) {
             throw new IllegalArgumentException("Point does not represent a square on the board");
         }
-        return lineSitsBetween(p, new Point(p.x(), p.y() + 1)) &&
-                lineSitsBetween(p, new Point(p.x() + 1, p.y())) &&
-                lineSitsBetween(new Point(p.x() + 1, p.y() + 1), new Point(p.x(), p.y() + 1)) &&
-                lineSitsBetween(new Point(p.x() + 1, p.y() + 1), new Point(p.x() + 1, p.y()));
+        if (p.x() == width - 1 || p.y() == height - 1) {
+            // the point sits on the right or lower border, so no box has it as its upper left corner
+            return false;
+        }
+        return boxSideCount(boxId(p.x(), p.y())) == 4;
     }
 
     /**
@@ -42,7 +375,7 @@ public class Board {
          * (i.e. the games has ended) by simply checking if the number of lines is 2*n*m - n - m which is the amount of possible lines
          * for a n*m board
          */
-        return lines.size() == (2 * width * height) - width - height;
+        return placedLineCount == horizontalLineCount + verticalLineCount;
     }
 
     /** Try placing a line onto the board.
@@ -50,26 +383,557 @@ public class Board {
      * @throws InvalidInputException if the line is not valid.
      */
     protected void placeLine(ColoredLine line) throws InvalidInputException {
-        if(line == null){
+        placeLine(line, line == null ? null : line.color());
+    }
+
+    /** Try placing a line of the given color onto the board.
+     * @param line the line to be placed.
+     * @param color the color of the line.
+     * @throws InvalidInputException if the line is not valid.
+     */
+    protected void placeLine(Line line, Color color) throws InvalidInputException {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Board snapshots cannot be modified.");
+        }
+        if(line == null || color == null){
             throw new InvalidInputException("Line is invalid.");
         }
         if (line.length() != 1)
             throw new InvalidInputException("Line is too long.");
-        if (isLineOutOfBounds(line))
+        final int id = lineId(line);
+        if (id < 0)
             throw new InvalidInputException("Line sits outside the bounds of the board.");
-        if (lines.parallelStream().anyMatch(l -> l.hasSameEndpointsAs(line))) {
+        if (isLinePlaced(id)) {
             throw new InvalidInputException("A line already exists between endpoints " + line.p1() + " and " + line.p2());
         }
-        synchronized (lines){
-            lines.add(line);
+        placeLine(id, color);
+    }
+
+    /** Places a line of the given color onto the board.
+     * @param id the id of the line, which must not have been placed yet.
+     * @param color the color of the line.
+     */
+    protected void placeLine(int id, Color color) {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Board snapshots cannot be modified.");
+        }
+        final int page = ownPage(id >>> pageShift);
+        linePages[page][(id & pageMask) >>> 6] |= 1L << id;
+        colorPages[page][(id & pageMask) >>> 1] |= (byte) ((color.ordinal() + 1) << ((id & 1) << 2));
+        pagePlacedLineCounts[page]++;
+        if (placedLineCount == placedLines.length) {
+            placedLines = Arrays.copyOf(placedLines, (int) Math.min(2L * placedLines.length, totalLineCount()));
+            sharedPlacedLineCount = 0;
+        } else if (placedLineCount < sharedPlacedLineCount) {
+            // a line has been removed and the slot being overwritten is still read by a snapshot
+            placedLines = placedLines.clone();
+            sharedPlacedLineCount = 0;
+        }
+        placedLines[placedLineCount++] = id;
+        if (freeLines != null) {
+            if (freeLinePositions[id] < safeLineCount) {
+                swapFreeLines(id, freeLines[--safeLineCount]);
+            }
+            // the line leaves the free lines, which now end where it is moved to
+            swapFreeLines(id, freeLines[totalLineCount() - placedLineCount]);
+        }
+        updateHashes(id);
+        final int adjacentBoxCount = adjacentBoxes(id, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            addBoxSide(adjacentBoxesBuffer[i]);
+        }
+        version++;
+    }
+
+    /**
+     * Removes the last placed line from the board, restoring the state preceding its placement.
+     * @return the id of the removed line.
+     * @throws IllegalStateException if the board is empty.
+     */
+    protected int removeLastLine() {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Board snapshots cannot be modified.");
+        }
+        if (placedLineCount == 0) {
+            throw new IllegalStateException("There are no lines to remove.");
+        }
+        final int id = placedLines[--placedLineCount];
+        final int page = ownPage(id >>> pageShift);
+        linePages[page][(id & pageMask) >>> 6] &= ~(1L << id);
+        colorPages[page][(id & pageMask) >>> 1] &= (byte) ~(0xF << ((id & 1) << 2));
+        pagePlacedLineCounts[page]--;
+        if (freeLines != null) {
+            // the line joins the free lines, which now end right after it
+            swapFreeLines(id, freeLines[totalLineCount() - placedLineCount - 1]);
+        }
+        updateHashes(id);
+        final int adjacentBoxCount = adjacentBoxes(id, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            removeBoxSide(adjacentBoxesBuffer[i]);
+        }
+        if (freeLines != null) {
+            updateLineSafety(id);
+        }
+        version++;
+        return id;
+    }
+
+    /**
+     * Moves a free line into or out of the safe ones, depending on the number of sides of the boxes next to it.
+     * @param id the id of the line.
+     */
+    private void updateLineSafety(int id) {
+        if (isLinePlaced(id)) {
+            return;
+        }
+        final boolean isSafe = isSafeLine(id);
+        if (isSafe && freeLinePositions[id] >= safeLineCount) {
+            swapFreeLines(id, freeLines[safeLineCount++]);
+        } else if (!isSafe && freeLinePositions[id] < safeLineCount) {
+            swapFreeLines(id, freeLines[--safeLineCount]);
+        }
+    }
+
+    /**
+     * Updates the safety of the sides of a box whose number of sides went from one to two or vice versa.
+     * @param box the id of the box.
+     */
+    private void updateBoxSidesSafety(int box) {
+        boxSideLines(box, boxSideLinesBuffer);
+        for (int side : boxSideLinesBuffer) {
+            updateLineSafety(side);
+        }
+    }
+
+    private void swapFreeLines(int id, int other) {
+        final int position = freeLinePositions[id];
+        final int otherPosition = freeLinePositions[other];
+        freeLines[position] = other;
+        freeLinePositions[other] = position;
+        freeLines[otherPosition] = id;
+        freeLinePositions[id] = otherPosition;
+    }
+
+    /**
+     * Increases the number of sides of a box, moving it to the following bucket.
+     * The box is swapped with the last box of its bucket, which then shrinks by one position while the following grows.
+     * @param box the id of the box.
+     */
+    private void addBoxSide(int box) {
+        if (boxSides == null) {
+            // the line has already been drawn, so the box had one side less
+            final int sides = boxSideCount(box) - 1;
+            boxCountsBySides[sides]--;
+            boxCountsBySides[sides + 1]++;
+            return;
+        }
+        final int sides = boxSides[box]++;
+        boxCountsBySides[sides]--;
+        boxCountsBySides[sides + 1]++;
+        final int last = sideBucketStarts[sides + 1] - 1;
+        final int position = boxPositions[box];
+        final int swapped = boxesBySides[last];
+        boxesBySides[position] = swapped;
+        boxPositions[swapped] = position;
+        boxesBySides[last] = box;
+        boxPositions[box] = last;
+        sideBucketStarts[sides + 1] = last;
+        if (sides == 1 && freeLines != null) {
+            updateBoxSidesSafety(box);
+        }
+    }
+
+    /**
+     * Decreases the number of sides of a box, moving it to the preceding bucket.
+     * The box is swapped with the first box of its bucket, which then shrinks by one position while the preceding grows.
+     * @param box the id of the box.
+     */
+    private void removeBoxSide(int box) {
+        if (boxSides == null) {
+            // the line has already been removed, so the box had one side more
+            final int sides = boxSideCount(box) + 1;
+            boxCountsBySides[sides]--;
+            boxCountsBySides[sides - 1]++;
+            return;
+        }
+        final int sides = boxSides[box]--;
+        boxCountsBySides[sides]--;
+        boxCountsBySides[sides - 1]++;
+        final int first = sideBucketStarts[sides];
+        final int position = boxPositions[box];
+        final int swapped = boxesBySides[first];
+        boxesBySides[position] = swapped;
+        boxPositions[swapped] = position;
+        boxesBySides[first] = box;
+        boxPositions[box] = first;
+        sideBucketStarts[sides] = first + 1;
+        if (sides == 2 && freeLines != null) {
+            updateBoxSidesSafety(box);
+        }
+    }
+
+    /**
+     * Makes sure the given page exists and is not shared with any snapshot, allocating or copying it if needed.
+     * @param page the index of the page.
+     * @return the index of the page.
+     */
+    private int ownPage(int page) {
+        if (linePages[page] == null) {
+            linePages[page] = new long[(pageMask + 1) >>> 6];
+            colorPages[page] = new byte[(pageMask + 1) >>> 1];
+            pageEpochs[page] = epoch;
+        } else if (pageEpochs[page] != epoch) {
+            linePages[page] = linePages[page].clone();
+            colorPages[page] = colorPages[page].clone();
+            pageEpochs[page] = epoch;
+        }
+        return page;
+    }
+
+    /**
+     * @return the number of possible lines on the board, which is also the upper bound of the line ids.
+     */
+    public int totalLineCount() {
+        return horizontalLineCount + verticalLineCount;
+    }
+
+    /**
+     * @return the number of lines placed onto the board.
+     */
+    public int placedLineCount() {
+        return placedLineCount;
+    }
+
+    /**
+     * @return the number of lines that can still be placed onto the board.
+     */
+    public int freeLineCount() {
+        return totalLineCount() - placedLineCount;
+    }
+
+    /**
+     * Picks a line not placed yet, each with the same probability. Regular boards keep the lines not placed yet in a
+     * dense array, so it takes constant time, while huge boards and snapshots do without it and count the placed lines
+     * of every page instead, so it takes time proportional to the number of pages plus the size of a page.
+     * @param random the source of randomness.
+     * @return the id of a random line not placed yet, or -1 if the board is full.
+     */
+    public int randomFreeLine(RandomGenerator random) {
+        final int freeLineCount = freeLineCount();
+        if (freeLineCount == 0) {
+            return -1;
+        }
+        int index = random.nextInt(freeLineCount);
+        if (freeLines != null) {
+            return freeLines[index];
+        }
+        int page = 0;
+        for (int pageFreeLines; index >= (pageFreeLines = pageLineCount(page) - pagePlacedLineCounts[page]); page++) {
+            index -= pageFreeLines;
+        }
+        final long[] pageLines = linePages[page];
+        if (pageLines == null) {
+            return (page << pageShift) + index;
+        }
+        for (int word = 0; ; word++) {
+            final long free = ~pageLines[word];
+            final int wordFreeLines = Long.bitCount(free);
+            if (index < wordFreeLines) {
+                long bits = free;
+                for (int i = 0; i < index; i++) {
+                    bits &= bits - 1;
+                }
+                // the bits past the last line of the board look free, but they follow every line of the page and are never reached
+                return (page << pageShift) + (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            index -= wordFreeLines;
+        }
+    }
+
+    /**
+     * @return the number of free lines that do not draw the third side of any box. Safe lines are kept at the front of
+     * the array of the free lines, so they are known at any time, as is a {@link #capturingLine() capturing} one.
+     * @throws UnsupportedOperationException if the board is a snapshot or a huge board.
+     */
+    public int safeLineCount() {
+        requireFreeLineIndex();
+        return safeLineCount;
+    }
+
+    /**
+     * @param index the position of the line among the free ones, where the {@link #safeLineCount() safe} ones come first.
+     * @return the id of the free line in the given position.
+     * @throws UnsupportedOperationException if the board is a snapshot or a huge board.
+     */
+    public int freeLineAt(int index) {
+        requireFreeLineIndex();
+        if (index < 0 || index >= freeLineCount()) {
+            throw new IndexOutOfBoundsException(index);
         }
+        return freeLines[index];
+    }
+
+    /**
+     * Picks a free line that does not draw the third side of any box, each with the same probability.
+     * @param random the source of randomness.
+     * @return the id of a random safe line, or -1 if there are none.
+     * @throws UnsupportedOperationException if the board is a snapshot or a huge board.
+     */
+    public int randomSafeLine(RandomGenerator random) {
+        requireFreeLineIndex();
+        return safeLineCount == 0 ? -1 : freeLines[random.nextInt(safeLineCount)];
     }
 
-    private boolean isLineOutOfBounds(Line line) {
-        return line.p1().x() < 0 || line.p1().x() >= width ||
-                line.p1().y() < 0 || line.p1().y() >= height ||
-                line.p2().x() < 0 || line.p2().x() >= width ||
-                line.p2().y() < 0 || line.p2().y() >= height;
+    /**
+     * @param id the id of a free line.
+     * @return true if none of the boxes next to the line has more than one side, so that drawing it
+     * does not give the opponent the chance to complete a box.
+     */
+    public boolean isSafeLine(int id) {
+        final int adjacentBoxCount = adjacentBoxes(id, safetyBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (boxSideCount(safetyBoxesBuffer[i]) > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of a free line completing a box, or -1 if no box has three sides.
+     * @throws UnsupportedOperationException if the board is a snapshot or a huge board.
+     */
+    public int capturingLine() {
+        requireBoxBuckets();
+        if (boxCountWithSides(3) == 0) {
+            return -1;
+        }
+        boxSideLines(boxWithSides(3, 0), boxSideLinesBuffer);
+        for (int side : boxSideLinesBuffer) {
+            if (!isLinePlaced(side)) {
+                return side;
+            }
+        }
+        throw new IllegalStateException("A box with three sides has no free side.");
+    }
+
+    private void requireFreeLineIndex() {
+        if (freeLines == null) {
+            throw new UnsupportedOperationException("Board snapshots and huge boards do not index their free lines.");
+        }
+    }
+
+    private int pageLineCount(int page) {
+        return Math.min(pageMask + 1, totalLineCount() - (page << pageShift));
+    }
+
+    /**
+     * @param order the position of the line in the placing order.
+     * @return the id of the line placed in the given position.
+     */
+    public int placedLineAt(int order) {
+        if (order < 0 || order >= placedLineCount) {
+            throw new IndexOutOfBoundsException(order);
+        }
+        return placedLines[order];
+    }
+
+    /**
+     * @return the number of boxes on the board.
+     */
+    public int boxCount() {
+        return (width - 1) * (height - 1);
+    }
+
+    /**
+     * @param x the x coordinate of the upper left corner of the box.
+     * @param y the y coordinate of the upper left corner of the box.
+     * @return the id of the box, or -1 if there is no such box on the board.
+     */
+    public int boxId(int x, int y) {
+        if (x < 0 || x >= width - 1 || y < 0 || y >= height - 1) {
+            return -1;
+        }
+        return y * (width - 1) + x;
+    }
+
+    /**
+     * Collects the sides of a box, in the order top, bottom, left and right.
+     *
+     * @param box the id of the box.
+     * @param lines an array of at least four elements where the ids of the sides are written.
+     */
+    public void boxSideLines(int box, int[] lines) {
+        final int x = box % (width - 1), y = box / (width - 1);
+        lines[0] = box;
+        lines[1] = box + width - 1;
+        lines[2] = horizontalLineCount + y * width + x;
+        lines[3] = lines[2] + 1;
+    }
+
+    /**
+     * Collects the boxes that have the given line as one of their sides, which are at most two.
+     *
+     * @param id the id of the line.
+     * @param boxes an array of at least two elements where the ids of the boxes are written.
+     * @return the number of boxes written into the array.
+     */
+    public int adjacentBoxes(int id, int[] boxes) {
+        int count = 0;
+        if (id < horizontalLineCount) {
+            final int x = id % (width - 1), y = id / (width - 1);
+            if (y > 0) {
+                boxes[count++] = (y - 1) * (width - 1) + x;
+            }
+            if (y < height - 1) {
+                boxes[count++] = y * (width - 1) + x;
+            }
+        } else {
+            final int x = (id - horizontalLineCount) % width, y = (id - horizontalLineCount) / width;
+            if (x > 0) {
+                boxes[count++] = y * (width - 1) + x - 1;
+            }
+            if (x < width - 1) {
+                boxes[count++] = y * (width - 1) + x;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the boxes that are completed and have the given line as one of their sides.
+     * Since a line borders at most two boxes, only those are checked.
+     *
+     * @param id the id of the line.
+     * @param boxes an array where the ids of the completed boxes are written.
+     * @param offset the position of the array from which the ids are written. At least two positions must be available.
+     * @return the number of completed boxes written into the array.
+     */
+    int boxesCompletedBy(int id, int[] boxes, int offset) {
+        final int adjacentBoxCount = adjacentBoxes(id, adjacentBoxesBuffer);
+        int count = 0;
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (boxSideCount(adjacentBoxesBuffer[i]) == 4) {
+                boxes[offset + count++] = adjacentBoxesBuffer[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param box the id of the box.
+     * @return the number of drawn sides of the box.
+     */
+    public int boxSideCount(int box) {
+        if (boxSides != null) {
+            return boxSides[box];
+        }
+        // snapshots do not keep the counters, but they can be derived from the lines
+        final int x = box % (width - 1), y = box / (width - 1);
+        return (isHorizontalLineSet(x, y) ? 1 : 0) + (isHorizontalLineSet(x, y + 1) ? 1 : 0) +
+                (isVerticalLineSet(x, y) ? 1 : 0) + (isVerticalLineSet(x + 1, y) ? 1 : 0);
+    }
+
+    /**
+     * @param sides a number of sides, from 0 to 4.
+     * @return how many boxes have the given number of drawn sides.
+     */
+    public int boxCountWithSides(int sides) {
+        return boxCountsBySides[sides];
+    }
+
+    /**
+     * Allows iterating over the boxes with a given number of sides, in no particular order.
+     *
+     * @param sides a number of sides, from 0 to 4.
+     * @param index the index of the box among the ones with the given number of sides.
+     * @return the id of the box.
+     * @see #boxCountWithSides(int)
+     */
+    public int boxWithSides(int sides, int index) {
+        requireBoxBuckets();
+        if (index < 0 || index >= boxCountWithSides(sides)) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return boxesBySides[sideBucketStarts[sides] + index];
+    }
+
+    private void requireBoxBuckets() {
+        if (sideBucketStarts == null) {
+            throw new UnsupportedOperationException("Board snapshots and huge boards do not group boxes by their sides.");
+        }
+    }
+
+    /**
+     * @param x1 the x coordinate of the "first" endpoint.
+     * @param y1 the y coordinate of the "first" endpoint.
+     * @param x2 the x coordinate of the "second" endpoint.
+     * @param y2 the y coordinate of the "second" endpoint.
+     * @return the id of the line between the two endpoints, or -1 if they are not adjacent points of the board.
+     */
+    public int lineId(int x1, int y1, int x2, int y2) {
+        final int x = Math.min(x1, x2);
+        final int y = Math.min(y1, y2);
+        if (x < 0 || y < 0 || Math.max(x1, x2) >= width || Math.max(y1, y2) >= height) {
+            return -1;
+        }
+        if (y1 == y2 && Math.abs(x1 - x2) == 1) {
+            return y * (width - 1) + x;
+        }
+        if (x1 == x2 && Math.abs(y1 - y2) == 1) {
+            return horizontalLineCount + y * width + x;
+        }
+        return -1;
+    }
+
+    /**
+     * @param line a line.
+     * @return the id of the line, or -1 if it is not a line of the board.
+     */
+    public int lineId(Line line) {
+        return lineId(line.p1().x(), line.p1().y(), line.p2().x(), line.p2().y());
+    }
+
+    /**
+     * @param id the id of a line.
+     * @return the line with the given id. The returned instance is shared, so no allocation takes place.
+     */
+    public Line lineOf(int id) {
+        if (totalLineCount() > HUGE_BOARD_LINE_COUNT) {
+            // a table for a huge board would take far more memory than the board itself
+            return LineTable.build(id, height, width);
+        }
+        if (lineTable == null) {
+            lineTable = LineTable.forSize(height, width);
+        }
+        return lineTable[id];
+    }
+
+    /**
+     * @param id the id of a line.
+     * @return if the line has been placed onto the board.
+     */
+    public boolean isLinePlaced(int id) {
+        final long[] page = linePages[id >>> pageShift];
+        return page != null && (page[(id & pageMask) >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * @param id the id of a line.
+     * @return the color of the line, or null if it has not been placed.
+     */
+    public Color lineColor(int id) {
+        final byte[] page = colorPages[id >>> pageShift];
+        final int color = page == null ? 0 : (page[(id & pageMask) >>> 1] >>> ((id & 1) << 2)) & 0xF;
+        return color == 0 ? null : COLORS[color - 1];
+    }
+
+    private boolean isHorizontalLineSet(int x, int y) {
+        return isLinePlaced(y * (width - 1) + x);
+    }
+
+    private boolean isVerticalLineSet(int x, int y) {
+        return isLinePlaced(horizontalLineCount + y * width + x);
     }
 
     /**
@@ -78,15 +942,18 @@ public class Board {
      * @return if a line occupies the two endpoints.
      */
     public boolean lineSitsBetween(Point p1, Point p2) {
-        synchronized (lines){
-            return lines.parallelStream().anyMatch(l -> {
-                try {
-                    return l.hasSameEndpointsAs(new Line(p1, p2));
-                } catch (InvalidInputException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
+        final int id = lineId(p1.x(), p1.y(), p2.x(), p2.y());
+        return id >= 0 && isLinePlaced(id);
+    }
+
+    /**
+     * @param p1 the "first" endpoint.
+     * @param p2 the "second" endpoint.
+     * @return the color of the line occupying the two endpoints, or null if there is no such line.
+     */
+    public Color lineColorBetween(Point p1, Point p2) {
+        final int id = lineId(p1.x(), p1.y(), p2.x(), p2.y());
+        return id < 0 ? null : lineColor(id);
     }
 
     public int width() {
@@ -97,17 +964,40 @@ public class Board {
         return height;
     }
 
+    /**
+     * @return the lines placed onto the board, in placing order. The colored lines are built when accessed.
+     */
     public SequencedCollection<ColoredLine> lines() {
         return lines;
     }
 
+    /**
+     * @param obj another object.
+     * @return if the object is a board of the same size holding the same lines, regardless of their order and colors.
+     */
     @Override
     public boolean equals(Object obj) {
-        if(obj.getClass() != this.getClass()){
+        if (!(obj instanceof Board other)) {
+            return false;
+        }
+        if (width != other.width || height != other.height ||
+                placedLineCount != other.placedLineCount || zobristHash != other.zobristHash) {
             return false;
         }
-        Board other = (Board) obj;
-        return width == other.width && height == other.height && lines.equals(other.lines);
+        for (int page = 0; page < linePages.length; page++) {
+            final long[] lines = linePages[page], otherLines = other.linePages[page];
+            for (int i = 0; i < (pageMask + 1) >>> 6; i++) {
+                if ((lines == null ? 0 : lines[i]) != (otherLines == null ? 0 : otherLines[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(zobristHash);
     }
 
     @Override
@@ -118,4 +1008,24 @@ public class Board {
         }
         return s.toString();
     }
+
+    /**
+     * Read-only list of the placed lines, backed by the board.
+     */
+    private class PlacedLines extends AbstractList<ColoredLine> {
+        @Override
+        public ColoredLine get(int index) {
+            final int id = placedLineAt(index);
+            try {
+                return new ColoredLine(lineOf(id), lineColor(id));
+            } catch (InvalidInputException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return placedLineCount;
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Class modeling a request to cancel a search, which can be made from any thread.
+ * Searches check it along with their deadline and return the best move found so far as soon as it is cancelled.
+ */
+public class CancelToken {
+
+    private volatile boolean isCancelled;
+
+    /**
+     * Cancels the searches checking this token. Cancelling is final.
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * @return true if the token has been cancelled.
+     */
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+}
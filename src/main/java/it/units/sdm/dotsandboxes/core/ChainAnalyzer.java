@@ -0,0 +1,371 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that solves the endgame of Dots and Boxes once it reduces to chains and loops.
+ * <p>
+ * A position qualifies when no free line is safe and every box still open has two or three sides: the open boxes
+ * then form chains, whose ends lie on the border of the board, next to a completed box or on a box with three sides,
+ * and loops. Since players alternate after every line, the long chain rule of the classic game does not apply,
+ * so the value is computed exactly by a recursion on the multiset of components rather than on the lines: a line
+ * splits a chain in two or opens a loop into a chain, and the value of a multiset is memoized regardless of where
+ * its components lie on the board. The memo is kept across analyses and emptied when it grows too large.
+ */
+public class ChainAnalyzer {
+
+    // the kinds of component, stored in the lowest bits of their code below their length in boxes
+    private static final int CLOSED_CHAIN = 0, HALF_OPEN_CHAIN = 1, OPEN_CHAIN = 2, LOOP = 3;
+    private static final int KIND_BITS = 2, KIND_MASK = (1 << KIND_BITS) - 1;
+    // how many multisets are evaluated between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 8;
+    private final int maxMemoSize;
+    private final Map<Components, Integer> memo = new HashMap<>();
+    private long evaluatedStates;
+    private long deadline;
+    private CancelToken cancelToken;
+    private boolean isAborted;
+
+    /**
+     * @param maxMemoSize the number of positions remembered before the memo is emptied: an analysis needing more
+     *                    than that gives up.
+     */
+    public ChainAnalyzer(int maxMemoSize) {
+        this.maxMemoSize = maxMemoSize;
+    }
+
+    /**
+     * @param board a board that is not huge.
+     * @return true if the position can be analyzed, i.e. there are free lines, none of them is safe and every open box
+     * has two or three sides.
+     */
+    public static boolean qualifies(Board board) {
+        return board.freeLineCount() > 0 && board.safeLineCount() == 0
+                && board.boxCountWithSides(0) == 0 && board.boxCountWithSides(1) == 0;
+    }
+
+    /**
+     * Solves the position, if it {@link #qualifies(Board) qualifies}.
+     *
+     * @param board a board that is not huge.
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @return the best move and the exact number of boxes the player to move completes more than the opponent,
+     * with the number of multisets of components evaluated as nodes, or null if the position does not qualify,
+     * needs more positions than the memo can hold or cannot be solved before the deadline.
+     */
+    public SearchResult analyze(Board board, long deadlineNanos) {
+        return analyze(board, deadlineNanos, new CancelToken());
+    }
+
+    /**
+     * Solves the position, if it {@link #qualifies(Board) qualifies}, unless the analysis is cancelled.
+     *
+     * @param board a board that is not huge.
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the analysis can be cancelled from another thread.
+     * @return the outcome of the analysis as returned by {@link #analyze(Board, long)}, or null if it is cancelled.
+     */
+    public SearchResult analyze(Board board, long deadlineNanos, CancelToken cancelToken) {
+        if (!qualifies(board)) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        evaluatedStates = 0;
+        deadline = deadlineNanos;
+        this.cancelToken = cancelToken;
+        isAborted = false;
+        if (memo.size() > maxMemoSize / 2) {
+            memo.clear();
+        }
+        final List<int[]> components = extractComponents(board);
+        final int[] codes = new int[components.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = codeOf(components.get(i), board);
+        }
+        int bestScore = Integer.MIN_VALUE, bestComponent = -1, bestSplit = -1;
+        for (int component = 0; component < codes.length; component++) {
+            for (int split = 0; split < splitCount(codes[component]); split++) {
+                final int score = scoreOf(codes, component, split);
+                if (isAborted) {
+                    return null;
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestComponent = component;
+                    bestSplit = split;
+                }
+            }
+        }
+        final int move = lineOf(components.get(bestComponent), codes[bestComponent], bestSplit, board);
+        return new SearchResult(move, bestScore, board.freeLineCount(), evaluatedStates, System.nanoTime() - start,
+                new int[]{move});
+    }
+
+    /**
+     * @param codes the sorted codes of the components.
+     * @return the number of boxes the player to move completes more than the opponent.
+     */
+    private int value(int[] codes) {
+        if (codes.length == 0) {
+            return 0;
+        }
+        final Components key = new Components(codes);
+        final Integer memoized = memo.get(key);
+        if (memoized != null) {
+            return memoized;
+        }
+        if (memo.size() >= maxMemoSize
+                || (++evaluatedStates & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                && (cancelToken.isCancelled() || System.nanoTime() - deadline >= 0)) {
+            isAborted = true;
+            return 0;
+        }
+        int best = Integer.MIN_VALUE;
+        for (int component = 0; component < codes.length; component++) {
+            if (component > 0 && codes[component] == codes[component - 1]) {
+                // the codes are sorted, so the same component has just been tried
+                continue;
+            }
+            for (int split = 0; split < splitCount(codes[component]); split++) {
+                best = Math.max(best, scoreOf(codes, component, split));
+                if (isAborted) {
+                    return 0;
+                }
+            }
+        }
+        memo.put(key, best);
+        return best;
+    }
+
+    /**
+     * Draws a line of a component. The lines of a chain of k boxes are numbered from 0 to k along the chain, 0 and k
+     * being its ends, which are missing if the box at that end has three sides. Lines that are the mirror image of
+     * others are skipped, so the split is the index of the line among those worth trying.
+     *
+     * @return the score of the line: the boxes it completes minus the value of the resulting position.
+     */
+    private int scoreOf(int[] codes, int component, int split) {
+        final int length = codes[component] >>> KIND_BITS, kind = codes[component] & KIND_MASK;
+        final int[] next = new int[codes.length + 1];
+        int count = 0, completedBoxes = 0;
+        if (kind == LOOP) {
+            next[count++] = chainCode(length, true, true);
+        } else {
+            final boolean isLeftOpen = kind != CLOSED_CHAIN, isRightOpen = kind == OPEN_CHAIN;
+            final int line = lineIndex(kind, split);
+            if (line >= 1) {
+                // the boxes on the left of the line, the last of which gets a side
+                if (line == 1 && isLeftOpen) {
+                    completedBoxes++;
+                } else {
+                    next[count++] = chainCode(line, isLeftOpen, true);
+                }
+            }
+            if (line <= length - 1) {
+                // the boxes on the right of the line, the first of which gets a side
+                if (line == length - 1 && isRightOpen) {
+                    completedBoxes++;
+                } else {
+                    next[count++] = chainCode(length - line, true, isRightOpen);
+                }
+            }
+        }
+        for (int i = 0; i < codes.length; i++) {
+            if (i != component) {
+                next[count++] = codes[i];
+            }
+        }
+        final int[] sorted = Arrays.copyOf(next, count);
+        Arrays.sort(sorted);
+        return completedBoxes - value(sorted);
+    }
+
+    /**
+     * @return the number of lines of a component worth trying.
+     */
+    private static int splitCount(int code) {
+        final int length = code >>> KIND_BITS;
+        return switch (code & KIND_MASK) {
+            // a loop looks the same wherever it is opened
+            case LOOP -> 1;
+            // lines 0 to k, symmetric
+            case CLOSED_CHAIN -> length / 2 + 1;
+            // lines 1 to k
+            case HALF_OPEN_CHAIN -> length;
+            // lines 1 to k - 1, symmetric
+            default -> length / 2;
+        };
+    }
+
+    /**
+     * @return the number of the line along a chain of the given kind drawn by the given split.
+     */
+    private static int lineIndex(int kind, int split) {
+        return kind == CLOSED_CHAIN ? split : split + 1;
+    }
+
+    private static int chainCode(int length, boolean isLeftOpen, boolean isRightOpen) {
+        final int kind = isLeftOpen && isRightOpen ? OPEN_CHAIN : isLeftOpen || isRightOpen ? HALF_OPEN_CHAIN : CLOSED_CHAIN;
+        return length << KIND_BITS | kind;
+    }
+
+    /**
+     * Collects the open boxes of every chain, in order and starting from the end with three sides if only one has,
+     * and of every loop, in order.
+     */
+    private static List<int[]> extractComponents(Board board) {
+        final boolean[] isVisited = new boolean[board.boxCount()];
+        final List<int[]> components = new ArrayList<>();
+        final int[] neighbours = new int[2];
+        // chains first, starting from the boxes at their ends, which have less than two open neighbours
+        for (int box = 0; box < board.boxCount(); box++) {
+            if (!isVisited[box] && board.boxSideCount(box) < 4 && openNeighbours(board, box, neighbours) < 2) {
+                final int[] chain = walk(board, box, isVisited, neighbours);
+                if (board.boxSideCount(chain[chain.length - 1]) == 3 && board.boxSideCount(chain[0]) != 3) {
+                    reverse(chain);
+                }
+                components.add(chain);
+            }
+        }
+        // what is left are loops
+        for (int box = 0; box < board.boxCount(); box++) {
+            if (!isVisited[box] && board.boxSideCount(box) < 4) {
+                components.add(walk(board, box, isVisited, neighbours));
+            }
+        }
+        return components;
+    }
+
+    private static int[] walk(Board board, int start, boolean[] isVisited, int[] neighbours) {
+        int[] boxes = new int[8];
+        int length = 0;
+        for (int box = start; box != -1; ) {
+            isVisited[box] = true;
+            if (length == boxes.length) {
+                boxes = Arrays.copyOf(boxes, 2 * length);
+            }
+            boxes[length++] = box;
+            final int neighbourCount = openNeighbours(board, box, neighbours);
+            box = -1;
+            for (int i = 0; i < neighbourCount; i++) {
+                if (!isVisited[neighbours[i]]) {
+                    box = neighbours[i];
+                }
+            }
+        }
+        return Arrays.copyOf(boxes, length);
+    }
+
+    private static void reverse(int[] boxes) {
+        for (int i = 0, j = boxes.length - 1; i < j; i++, j--) {
+            final int box = boxes[i];
+            boxes[i] = boxes[j];
+            boxes[j] = box;
+        }
+    }
+
+    /**
+     * Collects the open boxes sharing a free side with the given one, which are at most two in a qualifying position.
+     *
+     * @return the number of neighbours found.
+     */
+    private static int openNeighbours(Board board, int box, int[] neighbours) {
+        final int[] sides = new int[4], adjacent = new int[2];
+        int count = 0;
+        board.boxSideLines(box, sides);
+        for (int side : sides) {
+            if (!board.isLinePlaced(side)) {
+                final int adjacentCount = board.adjacentBoxes(side, adjacent);
+                for (int i = 0; i < adjacentCount; i++) {
+                    if (adjacent[i] != box && board.boxSideCount(adjacent[i]) < 4) {
+                        neighbours[count++] = adjacent[i];
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int codeOf(int[] boxes, Board board) {
+        final int first = boxes[0], last = boxes[boxes.length - 1];
+        // chains start from a box with less than two open neighbours
+        if (openNeighbours(board, first, new int[2]) == 2) {
+            return boxes.length << KIND_BITS | LOOP;
+        }
+        // a single box with three sides is open on one end only, its free side being the other
+        return chainCode(boxes.length, board.boxSideCount(first) == 3, boxes.length > 1 && board.boxSideCount(last) == 3);
+    }
+
+    /**
+     * Finds the line drawn by a split of a component on the board.
+     */
+    private static int lineOf(int[] boxes, int code, int split, Board board) {
+        if ((code & KIND_MASK) == LOOP) {
+            return sharedFreeSide(board, boxes[0], boxes[1]);
+        }
+        final int line = lineIndex(code & KIND_MASK, split);
+        if (line == 0) {
+            return groundSide(board, boxes[0]);
+        }
+        if (line == boxes.length) {
+            return groundSide(board, boxes[boxes.length - 1]);
+        }
+        return sharedFreeSide(board, boxes[line - 1], boxes[line]);
+    }
+
+    /**
+     * @return a free side of the box that is not shared with another open box, or -1 if none.
+     */
+    private static int groundSide(Board board, int box) {
+        final int[] sides = new int[4], adjacent = new int[2];
+        board.boxSideLines(box, sides);
+        for (int side : sides) {
+            if (board.isLinePlaced(side)) {
+                continue;
+            }
+            boolean isGround = true;
+            final int adjacentCount = board.adjacentBoxes(side, adjacent);
+            for (int i = 0; i < adjacentCount; i++) {
+                isGround &= adjacent[i] == box || board.boxSideCount(adjacent[i]) == 4;
+            }
+            if (isGround) {
+                return side;
+            }
+        }
+        return -1;
+    }
+
+    private static int sharedFreeSide(Board board, int box, int other) {
+        final int[] sides = new int[4], otherSides = new int[4];
+        board.boxSideLines(box, sides);
+        board.boxSideLines(other, otherSides);
+        for (int side : sides) {
+            for (int otherSide : otherSides) {
+                if (side == otherSide && !board.isLinePlaced(side)) {
+                    return side;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A multiset of components, as their sorted codes.
+     */
+    private record Components(int[] codes) {
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Components other && Arrays.equals(codes, other.codes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(codes);
+        }
+    }
+}
@@ -23,19 +23,12 @@ public class ColoredLine extends Line {
     }
 
     @Override
-    public String toString() {
-        return color + ", " + super.toString();
+    public int hashCode() {
+        return 31 * super.hashCode() + color.hashCode();
     }
 
-    /**
-     * @param other a line.
-     * @return if a colored line shares the same endpoints as the given line.
-     */
-    public boolean hasSameEndpointsAs(Line other) {
-        try {
-            return (new Line(p1(), p2())).equals(new Line(other.p1(), other.p2()));
-        } catch (InvalidInputException e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    public String toString() {
+        return color + ", " + super.toString();
     }
 }
@@ -0,0 +1,345 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class modeling a table holding the exact value of every position of a small board.
+ * <p>
+ * A position is identified by the bitmask of its lines, bit i being set if the line with id i is drawn, and its value
+ * is the number of boxes the player to move completes more than the opponent from then on, as players alternate
+ * after every line. Only the positions whose bitmask is the smallest among those of their reflections and rotations
+ * are solved, and every position is looked up through that canonical bitmask.
+ * <p>
+ * Tables are generated offline by retrograde analysis, from the full board back to the empty one, and written to a
+ * file made of a header, the set of the canonical bitmasks and one signed byte per canonical position, in bitmask
+ * order. The set is a bitset, split into blocks of 512 bits, each preceded in a separate array by the number of
+ * canonical bitmasks before it, so the index of the value of a position is found by counting the bits of at most one
+ * block, a cache line. At runtime the file is mapped into memory, so a lookup reads the page cache and nothing is
+ * deserialized on the heap.
+ * Generate a table with {@code gradle tablebase -Pargs="<height> <width> [<directory>]"}.
+ */
+public class EndgameTablebase {
+
+    /**
+     * The largest number of lines of a board whose table can be generated, which takes 2^lines bytes while generating
+     * and about 2^lines / 8 bytes for the set of the canonical bitmasks plus a byte per canonical position once written.
+     */
+    public static final int MAX_LINE_COUNT = 24;
+    private static final int MAGIC = 0x44425442;
+    private static final int FORMAT_VERSION = 2;
+    // magic, format version, height, width and number of canonical positions
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    // the number of 64-bit words of the set of the canonical bitmasks counted by each rank, a cache line
+    private static final int WORDS_PER_BLOCK = 8;
+    private final int height, width;
+    // the number of canonical bitmasks before each block of the set
+    private final ByteBuffer ranks;
+    private final ByteBuffer canonicalMasks;
+    private final ByteBuffer values;
+    private final Masks masks;
+
+    private EndgameTablebase(int height, int width, ByteBuffer ranks, ByteBuffer canonicalMasks, ByteBuffer values) {
+        this.height = height;
+        this.width = width;
+        this.ranks = ranks;
+        this.canonicalMasks = canonicalMasks;
+        this.values = values;
+        masks = new Masks(height, width);
+    }
+
+    /**
+     * @param height the height of the board.
+     * @param width the width of the board.
+     * @return true if a table can be generated for boards of the given size.
+     */
+    public static boolean supports(int height, int width) {
+        return height >= 2 && width >= 2 && 2 * height * width - height - width <= MAX_LINE_COUNT;
+    }
+
+    /**
+     * @param directory the directory holding the tables.
+     * @param height the height of the board.
+     * @param width the width of the board.
+     * @return the path of the table of boards of the given size.
+     */
+    public static Path fileFor(Path directory, int height, int width) {
+        return directory.resolve(height + "x" + width + ".dbtb");
+    }
+
+    /**
+     * Opens a table, mapping it into memory.
+     *
+     * @param file the path of the table.
+     * @return the table.
+     * @throws IOException if the file cannot be read or is not a valid table.
+     */
+    public static EndgameTablebase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (channel.size() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION) {
+                throw new IOException(file + " is not an endgame tablebase");
+            }
+            final int height = mapped.getInt(8), width = mapped.getInt(12), canonicalCount = mapped.getInt(16);
+            if (!supports(height, width) || canonicalCount < 1) {
+                throw new IOException(file + " is corrupted");
+            }
+            final int wordCount = wordCount(lineCount(height, width)), blockCount = blockCount(wordCount);
+            final int ranksOffset = HEADER_SIZE, masksOffset = ranksOffset + blockCount * Integer.BYTES,
+                    valuesOffset = masksOffset + wordCount * Long.BYTES;
+            if (channel.size() != (long) valuesOffset + canonicalCount) {
+                throw new IOException(file + " is corrupted");
+            }
+            return new EndgameTablebase(height, width, mapped.slice(ranksOffset, masksOffset - ranksOffset),
+                    mapped.slice(masksOffset, valuesOffset - masksOffset), mapped.slice(valuesOffset, canonicalCount));
+        }
+    }
+
+    /**
+     * Solves every position of a board by retrograde analysis and writes the table to a file.
+     *
+     * @param height the height of the board.
+     * @param width the width of the board.
+     * @param file the path of the table, which is replaced only once the table is complete.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void generate(int height, int width, Path file) throws IOException {
+        if (!supports(height, width)) {
+            throw new IllegalArgumentException("Boards with more than " + MAX_LINE_COUNT + " lines are not supported");
+        }
+        final Masks masks = new Masks(height, width);
+        final int lineCount = masks.lineCount;
+        final byte[] values = new byte[1 << lineCount];
+        final long[] canonicalMasks = new long[wordCount(lineCount)];
+        int canonicalCount = 0;
+        // positions are solved from the full board back, so that the ones a line leads to are always solved already
+        for (int drawn = lineCount - 1; drawn >= 0; drawn--) {
+            for (int mask = drawn == 0 ? 0 : (1 << drawn) - 1; mask < 1 << lineCount; mask = nextWithSameBitCount(mask)) {
+                if (masks.canonical(mask) != mask) {
+                    continue;
+                }
+                int best = Integer.MIN_VALUE;
+                for (int line = 0; line < lineCount; line++) {
+                    if ((mask & 1 << line) == 0) {
+                        best = Math.max(best, masks.completedBoxes(mask, line) - values[masks.canonical(mask | 1 << line)]);
+                    }
+                }
+                values[mask] = (byte) best;
+                canonicalMasks[mask >>> 6] |= 1L << mask;
+                canonicalCount++;
+                if (mask == 0) {
+                    break;
+                }
+            }
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN)
+                .putInt(MAGIC).putInt(FORMAT_VERSION).putInt(height).putInt(width).putInt(canonicalCount).flip();
+        final ByteBuffer ranks = ByteBuffer.allocate(blockCount(canonicalMasks.length) * Integer.BYTES).order(ByteOrder.BIG_ENDIAN);
+        final ByteBuffer masksBuffer = ByteBuffer.allocate(canonicalMasks.length * Long.BYTES).order(ByteOrder.BIG_ENDIAN);
+        int rank = 0;
+        for (int word = 0; word < canonicalMasks.length; word++) {
+            if (word % WORDS_PER_BLOCK == 0) {
+                ranks.putInt(rank);
+            }
+            masksBuffer.putLong(canonicalMasks[word]);
+            rank += Long.bitCount(canonicalMasks[word]);
+        }
+        // the values of the canonical positions, in bitmask order
+        final byte[] canonicalValues = new byte[canonicalCount];
+        for (int word = 0, index = 0; word < canonicalMasks.length; word++) {
+            for (long bits = canonicalMasks[word]; bits != 0; bits &= bits - 1) {
+                canonicalValues[index++] = values[word << 6 | Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(new ByteBuffer[]{header, ranks.flip(), masksBuffer.flip(), ByteBuffer.wrap(canonicalValues)});
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param board a board of the size of the table.
+     * @return the number of boxes the player to move completes more than the opponent, playing perfectly.
+     * @throws IllegalArgumentException if the board does not have the size of the table.
+     */
+    public int value(Board board) {
+        checkSize(board);
+        return valueOf(maskOf(board));
+    }
+
+    /**
+     * Finds the best move by looking up every position a line leads to.
+     *
+     * @param board a board of the size of the table.
+     * @return the best move and the exact value of the position, with the number of lookups as nodes.
+     * @throws IllegalArgumentException if the board does not have the size of the table.
+     */
+    public SearchResult search(Board board) {
+        checkSize(board);
+        final long start = System.nanoTime();
+        final int mask = maskOf(board);
+        int bestMove = -1, bestScore = 0, lookups = 0;
+        for (int line = 0; line < masks.lineCount; line++) {
+            if ((mask & 1 << line) == 0) {
+                final int score = masks.completedBoxes(mask, line) - valueOf(mask | 1 << line);
+                lookups++;
+                if (bestMove == -1 || score > bestScore) {
+                    bestMove = line;
+                    bestScore = score;
+                }
+            }
+        }
+        return new SearchResult(bestMove, bestScore, board.freeLineCount(), lookups, System.nanoTime() - start,
+                bestMove == -1 ? new int[0] : new int[]{bestMove});
+    }
+
+    private void checkSize(Board board) {
+        if (board.height() != height || board.width() != width) {
+            throw new IllegalArgumentException("The board does not have the size of the table.");
+        }
+    }
+
+    /**
+     * @return the value of the position with the given bitmask, read at the rank of its canonical bitmask in the set.
+     */
+    private int valueOf(int mask) {
+        final int canonical = masks.canonical(mask), word = canonical >>> 6, block = word / WORDS_PER_BLOCK;
+        int rank = ranks.getInt(block * Integer.BYTES);
+        for (int i = block * WORDS_PER_BLOCK; i < word; i++) {
+            rank += Long.bitCount(canonicalMasks.getLong(i * Long.BYTES));
+        }
+        rank += Long.bitCount(canonicalMasks.getLong(word * Long.BYTES) & (1L << canonical) - 1);
+        return values.get(rank);
+    }
+
+    private static int maskOf(Board board) {
+        int mask = 0;
+        for (int order = 0; order < board.placedLineCount(); order++) {
+            mask |= 1 << board.placedLineAt(order);
+        }
+        return mask;
+    }
+
+    private static int lineCount(int height, int width) {
+        return 2 * height * width - height - width;
+    }
+
+    /**
+     * @return the number of 64-bit words of the set of the canonical bitmasks of a board with the given lines.
+     */
+    private static int wordCount(int lineCount) {
+        return Math.max(1, (1 << lineCount) >>> 6);
+    }
+
+    private static int blockCount(int wordCount) {
+        return (wordCount + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK;
+    }
+
+    /**
+     * @return the smallest bitmask greater than the given one with the same number of bits set.
+     */
+    private static int nextWithSameBitCount(int mask) {
+        final int lowest = mask & -mask, ripple = mask + lowest;
+        return ripple | ((mask ^ ripple) >>> 2) / lowest;
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: EndgameTablebase <height> <width> [<directory>]");
+            System.exit(1);
+        }
+        final int height = Integer.parseInt(args[0]), width = Integer.parseInt(args[1]);
+        final Path directory = Path.of(args.length > 2 ? args[2] : "tablebases");
+        Files.createDirectories(directory);
+        final long start = System.nanoTime();
+        generate(height, width, fileFor(directory, height, width));
+        System.out.printf("Generated %s in %.1f s%n", fileFor(directory, height, width), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * The bitmasks describing the lines of a board: the sides of the boxes next to every line and the transformation
+     * of every bitmask by the symmetries of the board, applied a byte at a time.
+     */
+    private static final class Masks {
+
+        private final int lineCount;
+        // the sides of the boxes next to each line, 0 if there is no such box
+        private final int[] firstBoxSides, secondBoxSides;
+        // for each symmetry but the identity and each byte of a bitmask, the transformed bits of every value of the byte
+        private final int[][][] symmetricBytes;
+
+        private Masks(int height, int width) {
+            final Board board = new Board(height, width);
+            lineCount = board.totalLineCount();
+            firstBoxSides = new int[lineCount];
+            secondBoxSides = new int[lineCount];
+            final int[] boxes = new int[2], sides = new int[4];
+            for (int line = 0; line < lineCount; line++) {
+                final int boxCount = board.adjacentBoxes(line, boxes);
+                for (int i = 0; i < boxCount; i++) {
+                    board.boxSideLines(boxes[i], sides);
+                    final int boxSides = 1 << sides[0] | 1 << sides[1] | 1 << sides[2] | 1 << sides[3];
+                    if (i == 0) {
+                        firstBoxSides[line] = boxSides;
+                    } else {
+                        secondBoxSides[line] = boxSides;
+                    }
+                }
+            }
+            final int symmetryCount = Symmetry.countFor(width, height);
+            final int byteCount = (lineCount + 7) / 8;
+            symmetricBytes = new int[symmetryCount - 1][byteCount][256];
+            for (int symmetry = 1; symmetry < symmetryCount; symmetry++) {
+                for (int line = 0; line < lineCount; line++) {
+                    final int transformed = 1 << board.transformLine(line, Symmetry.of(symmetry));
+                    final int[] table = symmetricBytes[symmetry - 1][line / 8];
+                    for (int value = 0; value < 256; value++) {
+                        if ((value & 1 << (line % 8)) != 0) {
+                            table[value] |= transformed;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the smallest bitmask among those of the reflections and rotations of the position.
+         */
+        private int canonical(int mask) {
+            int canonical = mask;
+            for (int[][] bytes : symmetricBytes) {
+                int transformed = 0;
+                for (int i = 0; i < bytes.length; i++) {
+                    transformed |= bytes[i][mask >>> 8 * i & 0xFF];
+                }
+                canonical = Math.min(canonical, transformed);
+            }
+            return canonical;
+        }
+
+        /**
+         * @return the number of boxes completed by drawing the line in the position.
+         */
+        private int completedBoxes(int mask, int line) {
+            final int drawn = mask | 1 << line;
+            int completedBoxes = 0;
+            if (firstBoxSides[line] != 0 && (drawn & firstBoxSides[line]) == firstBoxSides[line]) {
+                completedBoxes++;
+            }
+            if (secondBoxSides[line] != 0 && (drawn & secondBoxSides[line]) == secondBoxSides[line]) {
+                completedBoxes++;
+            }
+            return completedBoxes;
+        }
+    }
+}
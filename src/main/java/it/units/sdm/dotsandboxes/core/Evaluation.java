@@ -0,0 +1,171 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Class modeling a linear evaluation function: the estimated value of a position for the player to move is the sum of
+ * its {@link Feature features}, as measured by a {@link FeatureExtractor}, each multiplied by its weight.
+ * <p>
+ * Weights are fitted offline by an {@link EvaluationTuner} and stored in a properties file mapping the name of each
+ * feature to its weight, where missing features weigh nothing.
+ */
+public class Evaluation {
+
+    /**
+     * The features of a position, all measured from the point of view of the player to move.
+     */
+    public enum Feature {
+        /** Always 1, so that the weight is a constant term. */
+        BIAS,
+        /** 1 if the player to move can complete a box, 0 otherwise. */
+        CAPTURE_AVAILABLE,
+        /** The number of boxes with three sides. */
+        THREE_SIDED_BOXES,
+        /** The number of boxes with two sides. */
+        TWO_SIDED_BOXES,
+        /** The number of boxes with one side. */
+        ONE_SIDED_BOXES,
+        /** The number of boxes not completed yet. */
+        OPEN_BOXES,
+        /** 1 if the number of safe lines is odd, 0 otherwise. */
+        SAFE_LINE_PARITY,
+        /** 1 if the number of free lines is odd, 0 otherwise. */
+        FREE_LINE_PARITY,
+        /** The number of chains and loops of at least three boxes with two or three sides. */
+        LONG_CHAINS,
+        /** 1 if the number of long chains is odd, 0 otherwise. */
+        LONG_CHAIN_PARITY,
+        /** The number of boxes in long chains. */
+        LONG_CHAIN_BOXES;
+
+        /**
+         * @return true if the feature needs the chains of the position to be walked.
+         */
+        boolean isChainFeature() {
+            return this == LONG_CHAINS || this == LONG_CHAIN_PARITY || this == LONG_CHAIN_BOXES;
+        }
+    }
+
+    /** The number of features. */
+    public static final int FEATURE_COUNT = Feature.values().length;
+    /** The evaluation used when no weights have been fitted: the player to move is worth a box if it can complete one. */
+    public static final Evaluation DEFAULT = new Evaluation(defaultWeights());
+    private final double[] weights;
+    private final boolean usesChainFeatures;
+
+    /**
+     * @param weights the weight of each feature, in the order of {@link Feature}.
+     */
+    public Evaluation(double[] weights) {
+        if (weights.length != FEATURE_COUNT) {
+            throw new IllegalArgumentException("Expected " + FEATURE_COUNT + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+        boolean usesChainFeatures = false;
+        for (Feature feature : Feature.values()) {
+            usesChainFeatures |= feature.isChainFeature() && weights[feature.ordinal()] != 0;
+        }
+        this.usesChainFeatures = usesChainFeatures;
+    }
+
+    /**
+     * @param feature a feature.
+     * @return the weight of the feature.
+     */
+    public double weight(Feature feature) {
+        return weights[feature.ordinal()];
+    }
+
+    /**
+     * @return true if any feature of the chains weighs something, so that they must be walked to evaluate a position.
+     */
+    public boolean usesChainFeatures() {
+        return usesChainFeatures;
+    }
+
+    /**
+     * @param features the features of a position, in the order of {@link Feature}.
+     * @return the estimated value of the position, rounded to the nearest number of boxes.
+     */
+    public int evaluate(double[] features) {
+        double value = 0;
+        for (int i = 0; i < FEATURE_COUNT; i++) {
+            value += weights[i] * features[i];
+        }
+        return (int) Math.round(value);
+    }
+
+    /**
+     * Reads the weights from a properties file.
+     *
+     * @param file the path of the file.
+     * @return the evaluation.
+     * @throws IOException if the file cannot be read or holds something other than weights of known features.
+     */
+    public static Evaluation load(Path file) throws IOException {
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        final double[] weights = new double[FEATURE_COUNT];
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                weights[Feature.valueOf(name).ordinal()] = Double.parseDouble(properties.getProperty(name));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " holds an invalid weight: " + name + "=" + properties.getProperty(name), e);
+            }
+        }
+        return new Evaluation(weights);
+    }
+
+    /**
+     * Writes the weights to a properties file.
+     *
+     * @param file the path of the file, which is replaced only once it is complete.
+     * @param comment the comment written at the top of the file, or null for none.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path file, String comment) throws IOException {
+        final Properties properties = new Properties();
+        for (Feature feature : Feature.values()) {
+            properties.setProperty(feature.name(), Double.toString(weights[feature.ordinal()]));
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary)) {
+            properties.store(writer, comment);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Evaluation other && Arrays.equals(weights, other.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(weights);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (Feature feature : Feature.values()) {
+            builder.append(builder.isEmpty() ? "" : ", ").append(feature).append('=').append(weights[feature.ordinal()]);
+        }
+        return builder.toString();
+    }
+
+    private static double[] defaultWeights() {
+        final double[] weights = new double[FEATURE_COUNT];
+        weights[Feature.CAPTURE_AVAILABLE.ordinal()] = 1;
+        return weights;
+    }
+}
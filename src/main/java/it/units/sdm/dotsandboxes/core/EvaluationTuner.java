@@ -0,0 +1,183 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Class fitting the weights of an {@link Evaluation} to positions of self-play games labelled by searching them.
+ * <p>
+ * Every thread plays games against itself on its own board: each position is searched with alpha-beta for a short
+ * time, its features and the score found are recorded, and the move found is played, or now and then a random one so
+ * that games differ. Positions are never stored: every thread adds them to the normal equations of the least squares
+ * fit, so memory does not grow with the number of positions and nothing is allocated per position but the results of
+ * the searches. The equations of all the threads are summed and solved at the end.
+ * Tune the weights with {@code gradle tuneEvaluation -Pargs="<height> <width> <positions> [<file>]"}.
+ */
+public class EvaluationTuner {
+
+    /** The file the weights are written to, unless another one is given. */
+    public static final String DEFAULT_FILE = "evaluation.properties";
+    private static final int TRANSPOSITION_TABLE_MEGABYTES = 8;
+    // the probability of playing a random move instead of the one found by the search
+    private static final double EXPLORATION_RATE = 0.2;
+    // keeps the weights of features that barely vary from growing without bound
+    private static final double RIDGE = 1e-3;
+    private static final long DEFAULT_LABEL_NANOS = 2_000_000;
+
+    private EvaluationTuner() {
+    }
+
+    /**
+     * Plays self-play games on every thread until the given number of positions has been labelled, then fits the
+     * weights to them.
+     *
+     * @param height the height of the boards played on.
+     * @param width the width of the boards played on.
+     * @param positionCount the number of positions of all the threads together.
+     * @param labelNanos the time given to the search of each position.
+     * @param threadCount the number of threads playing.
+     * @param seed the seed of the random moves.
+     * @return the evaluation whose weights fit the scores found best.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the playing ones.
+     */
+    public static Evaluation tune(int height, int width, long positionCount, long labelNanos, int threadCount, long seed)
+            throws InterruptedException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one thread is needed to play");
+        }
+        final NormalEquations[] equations = new NormalEquations[threadCount];
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            final long positions = positionCount / threadCount + (i < positionCount % threadCount ? 1 : 0);
+            equations[i] = new NormalEquations();
+            threads[i] = new Thread(() -> playGames(new Board(height, width), positions, labelNanos,
+                    new SplittableRandom(seed + index), equations[index]), "tuner-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 1; i < threadCount; i++) {
+            equations[0].add(equations[i]);
+        }
+        return new Evaluation(equations[0].solve());
+    }
+
+    private static void playGames(Board board, long positions, long labelNanos, SplittableRandom random,
+                                  NormalEquations equations) {
+        final AlphaBetaSearch search = new AlphaBetaSearch(board, new TranspositionTable(TRANSPOSITION_TABLE_MEGABYTES));
+        final Board game = search.board();
+        final FeatureExtractor featureExtractor = new FeatureExtractor(game);
+        final double[] features = new double[Evaluation.FEATURE_COUNT];
+        for (long labelled = 0; labelled < positions; labelled++) {
+            if (game.freeLineCount() == 0) {
+                while (game.placedLineCount() > 0) {
+                    game.removeLastLine();
+                }
+            }
+            final SearchResult result = search.search(System.nanoTime() + labelNanos);
+            featureExtractor.extract(features, true);
+            equations.add(features, result.score());
+            game.placeLine(random.nextDouble() < EXPLORATION_RATE ? randomMove(game, random) : result.move(), Color.RED);
+        }
+    }
+
+    /**
+     * @return a move completing a box if there is one, otherwise a random safe one if there is one, otherwise a random one.
+     */
+    private static int randomMove(Board board, SplittableRandom random) {
+        int move = board.capturingLine();
+        if (move == -1) {
+            move = board.randomSafeLine(random);
+        }
+        return move != -1 ? move : board.randomFreeLine(random);
+    }
+
+    /**
+     * The normal equations of the least squares fit of the weights, X^T X w = X^T y, accumulated one position at a time.
+     */
+    private static final class NormalEquations {
+
+        private final double[][] featureProducts = new double[Evaluation.FEATURE_COUNT][Evaluation.FEATURE_COUNT];
+        private final double[] featureScores = new double[Evaluation.FEATURE_COUNT];
+        private long positions;
+
+        private void add(double[] features, double score) {
+            for (int i = 0; i < features.length; i++) {
+                for (int j = 0; j < features.length; j++) {
+                    featureProducts[i][j] += features[i] * features[j];
+                }
+                featureScores[i] += features[i] * score;
+            }
+            positions++;
+        }
+
+        private void add(NormalEquations other) {
+            for (int i = 0; i < featureScores.length; i++) {
+                for (int j = 0; j < featureScores.length; j++) {
+                    featureProducts[i][j] += other.featureProducts[i][j];
+                }
+                featureScores[i] += other.featureScores[i];
+            }
+            positions += other.positions;
+        }
+
+        /**
+         * Solves the equations by Gaussian elimination with partial pivoting, after adding the ridge term.
+         *
+         * @return the weights.
+         */
+        private double[] solve() {
+            final int n = featureScores.length;
+            final double[][] matrix = new double[n][n + 1];
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(featureProducts[i], 0, matrix[i], 0, n);
+                matrix[i][i] += RIDGE * Math.max(1, positions);
+                matrix[i][n] = featureScores[i];
+            }
+            for (int column = 0; column < n; column++) {
+                int pivot = column;
+                for (int row = column + 1; row < n; row++) {
+                    if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column])) {
+                        pivot = row;
+                    }
+                }
+                final double[] swapped = matrix[column];
+                matrix[column] = matrix[pivot];
+                matrix[pivot] = swapped;
+                for (int row = column + 1; row < n; row++) {
+                    final double factor = matrix[row][column] / matrix[column][column];
+                    for (int k = column; k <= n; k++) {
+                        matrix[row][k] -= factor * matrix[column][k];
+                    }
+                }
+            }
+            final double[] weights = new double[n];
+            for (int row = n - 1; row >= 0; row--) {
+                double sum = matrix[row][n];
+                for (int k = row + 1; k < n; k++) {
+                    sum -= matrix[row][k] * weights[k];
+                }
+                weights[row] = sum / matrix[row][row];
+            }
+            return weights;
+        }
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: EvaluationTuner <height> <width> <positions> [<file>]");
+            System.exit(1);
+        }
+        final int height = Integer.parseInt(args[0]), width = Integer.parseInt(args[1]);
+        final long positions = Long.parseLong(args[2]);
+        final Path file = Path.of(args.length > 3 ? args[3] : DEFAULT_FILE);
+        final long start = System.nanoTime();
+        final Evaluation evaluation = tune(height, width, positions, DEFAULT_LABEL_NANOS,
+                Runtime.getRuntime().availableProcessors(), new SplittableRandom().nextLong());
+        evaluation.save(file, "Fitted to " + positions + " positions of " + height + "x" + width + " self-play games");
+        System.out.printf("Wrote %s in %.1f s: %s%n", file, (System.nanoTime() - start) / 1e9, evaluation);
+    }
+}
@@ -0,0 +1,114 @@
+package it.units.sdm.dotsandboxes.core;
+
+import it.units.sdm.dotsandboxes.core.Evaluation.Feature;
+
+import java.util.Arrays;
+
+/**
+ * Class measuring the {@link Feature features} of the position of a board, as it changes.
+ * <p>
+ * Box counts are read from the buckets the board keeps up to date, while chains are found by walking the boxes with
+ * two or three sides through their free sides. The extractor reuses its buffers, so measuring a position allocates
+ * nothing and it can be done at every leaf of a search.
+ */
+public class FeatureExtractor {
+
+    // the length from which a chain cannot be given away without the opponent keeping control
+    private static final int LONG_CHAIN_LENGTH = 3;
+    private final Board board;
+    // the walk during which each box has last been visited, so that visits need not be cleared between walks
+    private final int[] visitStamps;
+    private final int[] stack;
+    private final int[] adjacentBoxesBuffer = new int[2];
+    private final int[] boxSideLinesBuffer = new int[4];
+    private int stamp;
+
+    /**
+     * @param board the board whose positions are measured, which can change between measurements.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public FeatureExtractor(Board board) {
+        if (board.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards do not group their boxes by sides.");
+        }
+        this.board = board;
+        visitStamps = new int[board.boxCount()];
+        stack = new int[board.boxCount()];
+    }
+
+    /**
+     * Measures the features of the current position.
+     *
+     * @param features the array the features are written to, in the order of {@link Feature}.
+     * @param withChains false to skip walking the chains, leaving their features at 0.
+     */
+    public void extract(double[] features, boolean withChains) {
+        Arrays.fill(features, 0);
+        final int threeSidedBoxes = board.boxCountWithSides(3);
+        features[Feature.BIAS.ordinal()] = 1;
+        features[Feature.CAPTURE_AVAILABLE.ordinal()] = threeSidedBoxes > 0 ? 1 : 0;
+        features[Feature.THREE_SIDED_BOXES.ordinal()] = threeSidedBoxes;
+        features[Feature.TWO_SIDED_BOXES.ordinal()] = board.boxCountWithSides(2);
+        features[Feature.ONE_SIDED_BOXES.ordinal()] = board.boxCountWithSides(1);
+        features[Feature.OPEN_BOXES.ordinal()] = board.boxCount() - board.boxCountWithSides(4);
+        features[Feature.SAFE_LINE_PARITY.ordinal()] = board.safeLineCount() & 1;
+        features[Feature.FREE_LINE_PARITY.ordinal()] = board.freeLineCount() & 1;
+        if (withChains) {
+            extractChains(features);
+        }
+    }
+
+    private void extractChains(double[] features) {
+        if (++stamp == 0) {
+            Arrays.fill(visitStamps, 0);
+            stamp = 1;
+        }
+        int longChains = 0, longChainBoxes = 0;
+        for (int sides = 2; sides <= 3; sides++) {
+            for (int i = 0; i < board.boxCountWithSides(sides); i++) {
+                final int box = board.boxWithSides(sides, i);
+                if (visitStamps[box] != stamp) {
+                    final int length = walkChain(box);
+                    if (length >= LONG_CHAIN_LENGTH) {
+                        longChains++;
+                        longChainBoxes += length;
+                    }
+                }
+            }
+        }
+        features[Feature.LONG_CHAINS.ordinal()] = longChains;
+        features[Feature.LONG_CHAIN_PARITY.ordinal()] = longChains & 1;
+        features[Feature.LONG_CHAIN_BOXES.ordinal()] = longChainBoxes;
+    }
+
+    /**
+     * Visits the boxes with two or three sides reachable from the given one through free sides.
+     *
+     * @return the number of boxes visited.
+     */
+    private int walkChain(int start) {
+        int size = 0, length = 0;
+        visitStamps[start] = stamp;
+        stack[size++] = start;
+        while (size > 0) {
+            final int box = stack[--size];
+            length++;
+            board.boxSideLines(box, boxSideLinesBuffer);
+            for (int side : boxSideLinesBuffer) {
+                if (board.isLinePlaced(side)) {
+                    continue;
+                }
+                final int adjacentBoxCount = board.adjacentBoxes(side, adjacentBoxesBuffer);
+                for (int i = 0; i < adjacentBoxCount; i++) {
+                    final int next = adjacentBoxesBuffer[i];
+                    final int nextSides = board.boxSideCount(next);
+                    if (visitStamps[next] != stamp && (nextSides == 2 || nextSides == 3)) {
+                        visitStamps[next] = stamp;
+                        stack[size++] = next;
+                    }
+                }
+            }
+        }
+        return length;
+    }
+}
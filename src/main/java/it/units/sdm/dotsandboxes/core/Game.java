@@ -3,18 +3,41 @@ package it.units.sdm.dotsandboxes.core;
 import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 /**
  * Class that models the state of a single game of Dots and Boxes.
+ * <p>
+ * A game has a single writer, the thread making the moves, while any number of threads can read its state.
+ * Modifications happen inside the write section of a sequence lock: readers never block the writer, they read
+ * optimistically and retry only if a modification happened in the meantime, so they always observe the board,
+ * the turn and the scores as they were between two modifications.
+ * <p>
+ * Moves can be taken back and replayed: every move records the boxes it completed and who was credited for them,
+ * so undoing or redoing it costs constant time.
  */
 public class Game {
 
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 8;
+    private static final int INITIAL_MOVE_CAPACITY = 1024;
     private final List<String> players = new ArrayList<>();
+    private final List<String> unmodifiablePlayers = Collections.unmodifiableList(players);
+    private final StampedLock stateLock = new StampedLock();
+    // number of modifications of the game, published with every consistent read
+    private long version;
     private final Map<String, Color> playerColorLUT;
-    private final Map<String, Integer> scoreBoard;
+    private final int[] playerScores;
     private final Board board;
-    private final Set<Point> completedBoxes;
+    // latest snapshot of the board, published after every move for the readers on other threads
+    private volatile Board boardSnapshot;
+    // the owner of each box, stored as the player index + 1 so that 0 means the box is still open
+    private final byte[] boxOwners;
+    // the boxes completed by each move, two slots per move with -1 marking an empty slot. Grows with the moves
+    private int[] moveCompletedBoxes;
+    // the ids of the undone lines that can be redone
+    private int[] undoneMoves;
+    private int undoneMoveCount;
 
     public Game(int boardHeight, int boardWidth, SequencedCollection<String> players) throws InvalidInputException {
         if (Set.copyOf(players).size() != players.size()) {
@@ -25,11 +48,10 @@ public class Game {
         if (this.players.size() < 2) {
             throw new InvalidInputException("Game requires a minimum of 2 players.");
         }
-        scoreBoard = new ConcurrentHashMap<>(this.players.size());
+        playerScores = new int[this.players.size()];
         playerColorLUT = new HashMap<>(this.players.size());
         int c = 0;
         for (String p : this.players) {
-            scoreBoard.put(p, 0);
             playerColorLUT.put(p, Color.values()[c++]);
         }
         try {
@@ -37,7 +59,11 @@ public class Game {
         } catch (IllegalArgumentException e) {
             throw new InvalidInputException(e.getMessage());
         }
-        completedBoxes = new HashSet<>();
+        boxOwners = new byte[board.boxCount()];
+        final int moveCapacity = Math.min(board.totalLineCount(), INITIAL_MOVE_CAPACITY);
+        moveCompletedBoxes = new int[2 * moveCapacity];
+        undoneMoves = new int[moveCapacity];
+        boardSnapshot = board.snapshot();
     }
 
     public Game(int boardHeight, int boardWidth, String... players) throws InvalidInputException {
@@ -48,12 +74,12 @@ public class Game {
      * @return the index of the previous player.
      */
     public int getLastPlayerIndex() {
-        synchronized (board.lines()) {
-            if (board.lines().isEmpty()) {
-                return -1;
-            }
-            return (board.lines().size() - 1) % players.size();
+        // the snapshot is immutable, so the turn can be derived from it without locking
+        final int placedLineCount = boardSnapshot.placedLineCount();
+        if (placedLineCount == 0) {
+            return -1;
         }
+        return (placedLineCount - 1) % players.size();
     }
 
     /**
@@ -68,25 +94,15 @@ public class Game {
      */
     public String getCurrentPlayer() {
         // we chose to make the player1 start first every time
-        synchronized (board.lines()) {
-            if (board.lines().isEmpty())
-                return this.players.getFirst();
-            return this.players.get(getCurrentPlayerIndex());
-        }
-
+        return this.players.get(getCurrentPlayerIndex());
     }
 
     /**
      * @return the name of the previous player.
      */
     public String getLastPlayer() {
-        // we chose to make the player1 start first every time
-        synchronized (board.lines()) {
-            if (board.lines().isEmpty())
-                return null;
-            return this.players.get(getLastPlayerIndex());
-        }
-
+        final int lastPlayerIndex = getLastPlayerIndex();
+        return lastPlayerIndex < 0 ? null : this.players.get(lastPlayerIndex);
     }
 
     /**
@@ -94,7 +110,15 @@ public class Game {
      * @return the player's score.
      */
     public int getPlayerScore(String p) {
-        return scoreBoard.get(p);
+        return getPlayerScore(players.indexOf(p));
+    }
+
+    /**
+     * @param playerIndex the index of the player.
+     * @return the player's score.
+     */
+    public int getPlayerScore(int playerIndex) {
+        return readConsistently(() -> playerScores[playerIndex]);
     }
 
     /**
@@ -105,44 +129,151 @@ public class Game {
         return playerColorLUT.get(p);
     }
 
+    /**
+     * Draws a line for the current player and credits it with the boxes the line completes, in the same modification,
+     * so that no reader ever observes a completed box nobody has been credited for.
+     *
+     * @param line the line to draw.
+     * @throws InvalidInputException if the line is not on the board or has already been drawn.
+     */
     public void makeNextMove(Line line) throws InvalidInputException {
-        ColoredLine lineCandidate = line == null ? null : new ColoredLine(line, getPlayerColor(getCurrentPlayer()));
-        board.placeLine(lineCandidate);
+        final long stamp = stateLock.writeLock();
+        try {
+            board.placeLine(line, currentColor());
+            scoreLastMove();
+            undoneMoveCount = 0;
+            publishModification();
+        } finally {
+            stateLock.unlockWrite(stamp);
+        }
     }
 
     /**
-     * @return the state of the board.
+     * Takes back the last move, restoring the board, the scores, the completed boxes and the turn as they were before it.
+     * The move can then be replayed with {@link #redoMove()}, until a new move is made.
+     *
+     * @return false if there is no move to take back, true otherwise.
      */
-    public final Board board() {
-        return board;
+    public boolean undoMove() {
+        final long stamp = stateLock.writeLock();
+        try {
+            final int move = board.placedLineCount() - 1;
+            if (move < 0) {
+                return false;
+            }
+            for (int slot = 2 * move; slot < 2 * move + 2 && moveCompletedBoxes[slot] >= 0; slot++) {
+                boxOwners[moveCompletedBoxes[slot]] = 0;
+                playerScores[move % players.size()]--;
+            }
+            if (undoneMoveCount == undoneMoves.length) {
+                undoneMoves = Arrays.copyOf(undoneMoves, Math.min(2 * undoneMoves.length, board.totalLineCount()));
+            }
+            undoneMoves[undoneMoveCount++] = board.removeLastLine();
+            publishModification();
+            return true;
+        } finally {
+            stateLock.unlockWrite(stamp);
+        }
     }
 
     /**
-     * @return if the board is full.
+     * Replays the last move taken back with {@link #undoMove()}, scoring it again.
+     *
+     * @return false if there is no move to replay, true otherwise.
      */
-    public boolean hasEnded() {
-        return board.isBoardFull();
+    public boolean redoMove() {
+        final long stamp = stateLock.writeLock();
+        try {
+            if (undoneMoveCount == 0) {
+                return false;
+            }
+            board.placeLine(undoneMoves[--undoneMoveCount], currentColor());
+            scoreLastMove();
+            publishModification();
+            return true;
+        } finally {
+            stateLock.unlockWrite(stamp);
+        }
+    }
+
+    private Color currentColor() {
+        return getPlayerColor(players.get(board.placedLineCount() % players.size()));
     }
 
     /**
-     * Checks the lines on the board to compute the scores.
+     * Records the boxes completed by the last move and credits them to the player who made it.
      */
-    public synchronized void updateScore() {
-        for (int i = 0; i < board.width(); i++) {
-            for (int j = 0; j < board.height(); j++) {
-                Point currentPoint = new Point(i, j);
-                if (board.isBoxCompleted(currentPoint) && !completedBoxes.contains(currentPoint)) {
-                    increasePlayerScoreByOne(getLastPlayer());
-                    completedBoxes.add(new Point(i, j));
+    private void scoreLastMove() {
+        final int move = board.placedLineCount() - 1;
+        if (2 * move == moveCompletedBoxes.length) {
+            moveCompletedBoxes = Arrays.copyOf(moveCompletedBoxes, Math.min(2 * moveCompletedBoxes.length, 2 * board.totalLineCount()));
+        }
+        final int completed = board.boxesCompletedBy(board.placedLineAt(move), moveCompletedBoxes, 2 * move);
+        if (completed < 2) {
+            Arrays.fill(moveCompletedBoxes, 2 * move + completed, 2 * move + 2, -1);
+        }
+        final int playerIndex = move % players.size();
+        for (int i = 0; i < completed; i++) {
+            boxOwners[moveCompletedBoxes[2 * move + i]] = (byte) (playerIndex + 1);
+            playerScores[playerIndex]++;
+        }
+    }
+
+    private void publishModification() {
+        boardSnapshot = board.snapshot();
+        version++;
+    }
+
+    /**
+     * @return a consistent view of the board, the turn and the scores, which can be taken from any thread.
+     */
+    public GameState state() {
+        return readConsistently(() -> new GameState(version, boardSnapshot, unmodifiablePlayers, playerScores.clone()));
+    }
+
+    /**
+     * Reads the state of the game optimistically, falling back to the read lock if the writer keeps modifying it.
+     * @param reader the function reading the state. It may observe an inconsistent state, in which case its result is discarded.
+     * @return the result of a read that did not overlap with any modification.
+     */
+    private <T> T readConsistently(Supplier<T> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            final long stamp = stateLock.tryOptimisticRead();
+            if (stamp != 0) {
+                final T result = reader.get();
+                if (stateLock.validate(stamp)) {
+                    return result;
                 }
             }
+            Thread.onSpinWait();
+        }
+        final long stamp = stateLock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            stateLock.unlockRead(stamp);
         }
     }
 
-    private synchronized void increasePlayerScoreByOne(String p) {
-        final int currentScore = scoreBoard.get(p);
-        final int newScore = currentScore + 1;
-        scoreBoard.replace(p, newScore);
+    /**
+     * @return the state of the board.
+     */
+    public final Board board() {
+        return board;
+    }
+
+    /**
+     * @return the immutable snapshot of the board after the last move, which can be read from any thread without locking.
+     */
+    public Board boardSnapshot() {
+        return boardSnapshot;
+    }
+
+    /**
+     * @return if the board is full, i.e. if every box has been completed.
+     */
+    public boolean hasEnded() {
+        return board.boxCountWithSides(4) == board.boxCount();
     }
 
     /**
@@ -153,10 +284,10 @@ public class Game {
     }
 
     /**
-     * @return the score board.
+     * @return the score board, in player order.
      */
     public Map<String, Integer> scoreBoard() {
-        return scoreBoard;
+        return state().scoreBoard();
     }
 
     /**
@@ -188,7 +319,9 @@ public class Game {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Score Board:").append("\n");
-        scoreBoard.forEach((p, s) -> sb.append(p).append(": ").append(s).append("\n"));
+        for (int i = 0; i < players.size(); i++) {
+            sb.append(players.get(i)).append(": ").append(playerScores[i]).append("\n");
+        }
         sb.append("\n");
         sb.append("Game Board:").append("\n").append(board);
         sb.append("\n");
@@ -0,0 +1,58 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record that models a consistent, immutable view of a game between two modifications.
+ *
+ * @param version the version of the game, which increases with every modification.
+ * @param board the snapshot of the board.
+ * @param players the players, in turn order.
+ * @param scores the players' scores, indexed like the players.
+ */
+public record GameState(long version, Board board, List<String> players, int[] scores) {
+
+    /**
+     * @return the players' scores, indexed like the players.
+     */
+    @Override
+    public int[] scores() {
+        return scores.clone();
+    }
+
+    /**
+     * @param playerIndex the index of the player.
+     * @return the player's score.
+     */
+    public int score(int playerIndex) {
+        return scores[playerIndex];
+    }
+
+    /**
+     * @return the index of the current player.
+     */
+    public int currentPlayerIndex() {
+        return board.placedLineCount() % players.size();
+    }
+
+    /**
+     * @return the name of the current player.
+     */
+    public String currentPlayer() {
+        return players.get(currentPlayerIndex());
+    }
+
+    /**
+     * @return the score board, in player order.
+     */
+    public Map<String, Integer> scoreBoard() {
+        final Map<String, Integer> scoreBoard = new LinkedHashMap<>(players.size());
+        for (int i = 0; i < players.size(); i++) {
+            scoreBoard.put(players.get(i), scores[i]);
+        }
+        return Collections.unmodifiableMap(scoreBoard);
+    }
+}
@@ -2,9 +2,6 @@ package it.units.sdm.dotsandboxes.core;
 
 import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 
-import java.util.LinkedHashSet;
-import java.util.SequencedSet;
-
 /**
  * Class that models a line.
  * Lines do not formally have a direction as it's not required by the game,
@@ -12,15 +9,14 @@ import java.util.SequencedSet;
  */
 public class Line {
 
-    private final SequencedSet<Point> endpoints;
+    private final Point p1, p2;
 
     public Line(Point p1, Point p2) throws InvalidInputException {
-        endpoints = new LinkedHashSet<>();
-        endpoints.add(p1);
-        endpoints.add(p2);
-        if(endpoints.size() != 2) {
+        if (p1.equals(p2)) {
             throw new InvalidInputException("A line must sit between two different points.");
         }
+        this.p1 = p1;
+        this.p2 = p2;
     }
 
     public Line(int x1, int y1, int x2, int y2) throws InvalidInputException {
@@ -28,28 +24,42 @@ public class Line {
     }
 
     public Point p1(){
-        return endpoints.getFirst();
+        return p1;
     }
 
     public Point p2(){
-        return endpoints.getLast();
+        return p2;
     }
 
     public double length() {
-        return Math.pow(Math.pow(p2().x() - p1().x(), 2) + Math.pow(p2().y() - p1().y(), 2), 0.5);
+        final int dx = p2.x() - p1.x(), dy = p2.y() - p1.y();
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @param other a line.
+     * @return if the two lines share the same endpoints, regardless of their order.
+     */
+    public boolean hasSameEndpointsAs(Line other) {
+        return (p1.equals(other.p1) && p2.equals(other.p2)) || (p1.equals(other.p2) && p2.equals(other.p1));
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Line other) {
-            return endpoints.equals(other.endpoints);
+            return hasSameEndpointsAs(other);
         }
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        // symmetric in the endpoints, as equality does not depend on their order
+        return p1.hashCode() + p2.hashCode();
+    }
+
     @Override
     public String toString() {
         return p1() + " -> " + p2();
     }
 }
-
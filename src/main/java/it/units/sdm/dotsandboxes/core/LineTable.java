@@ -0,0 +1,55 @@
+package it.units.sdm.dotsandboxes.core;
+
+import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class holding the shared Line instances of every possible line of a board, indexed by line id.
+ * Lines are immutable, so a single table is built for each board size and shared by all the boards of that size.
+ */
+final class LineTable {
+
+    private static final Map<Long, Line[]> TABLES = new ConcurrentHashMap<>();
+
+    private LineTable() {}
+
+    /**
+     * @param height the height of the board.
+     * @param width the width of the board.
+     * @return the lines of a board of the given size, indexed by line id.
+     * @see Board#lineId(int, int, int, int)
+     */
+    static Line[] forSize(int height, int width) {
+        return TABLES.computeIfAbsent(((long) height << 32) | width, key -> build(height, width));
+    }
+
+    private static Line[] build(int height, int width) {
+        final Line[] table = new Line[(width - 1) * height + width * (height - 1)];
+        for (int id = 0; id < table.length; id++) {
+            table[id] = build(id, height, width);
+        }
+        return table;
+    }
+
+    /**
+     * @param id the id of a line.
+     * @param height the height of the board.
+     * @param width the width of the board.
+     * @return a new instance of the line with the given id on a board of the given size.
+     */
+    static Line build(int id, int height, int width) {
+        final int horizontalLineCount = (width - 1) * height;
+        try {
+            if (id < horizontalLineCount) {
+                final int x = id % (width - 1), y = id / (width - 1);
+                return new Line(x, y, x + 1, y);
+            }
+            final int x = (id - horizontalLineCount) % width, y = (id - horizontalLineCount) / width;
+            return new Line(x, y, x, y + 1);
+        } catch (InvalidInputException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
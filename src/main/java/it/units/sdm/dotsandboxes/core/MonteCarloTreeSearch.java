@@ -0,0 +1,262 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Class that searches for the best move of a position with Monte Carlo Tree Search, selecting the moves with UCT.
+ * <p>
+ * The tree is stored in parallel arrays of primitives indexed by node, whose capacity is fixed when the search is
+ * created: the children of a node are allocated next to each other when it is expanded, which happens on its second
+ * visit, and nodes stop being expanded once the capacity is reached.
+ * Playouts are played on a private copy of the board, placing and then removing lines in place, so they allocate
+ * nothing. They complete a box whenever possible, otherwise they prefer the lines that do not draw the third side
+ * of a box.
+ * <p>
+ * Players alternate after every line, and a playout rewards the player to move at the root in proportion to the
+ * boxes it completed more than the opponent out of the boxes still open.
+ */
+public class MonteCarloTreeSearch {
+
+    private static final double EXPLORATION = Math.sqrt(2);
+    private final Board board;
+    private final RandomGenerator random;
+    private final int rootPlacedLineCount;
+    private final int openBoxCount;
+    // the line drawn to reach each node from its parent
+    private final int[] nodeMoves;
+    private final int[] nodeParents;
+    // the index of the first child of each node, or -1 if the node has not been expanded
+    private final int[] nodeFirstChildren;
+    private final int[] nodeChildCounts;
+    private final int[] nodeVisits;
+    // the sum of the rewards of the playouts through each node, for the player who drew its line
+    private final double[] nodeRewards;
+    private int nodeCount;
+    private final int[] adjacentBoxesBuffer = new int[2];
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param maxNodes the maximum number of nodes of the tree, raised if needed to hold the root and its children.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public MonteCarloTreeSearch(Board position, int maxNodes) {
+        this(position, maxNodes, new SplittableRandom());
+    }
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param maxNodes the maximum number of nodes of the tree, raised if needed to hold the root and its children.
+     * @param random the source of randomness of the playouts.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public MonteCarloTreeSearch(Board position, int maxNodes, RandomGenerator random) {
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        board = position.copy();
+        this.random = random;
+        rootPlacedLineCount = board.placedLineCount();
+        openBoxCount = board.boxCount() - board.boxCountWithSides(4);
+        final int capacity = Math.max(maxNodes, board.freeLineCount() + 1);
+        nodeMoves = new int[capacity];
+        nodeParents = new int[capacity];
+        nodeFirstChildren = new int[capacity];
+        nodeChildCounts = new int[capacity];
+        nodeVisits = new int[capacity];
+        nodeRewards = new double[capacity];
+        nodeMoves[0] = -1;
+        nodeParents[0] = -1;
+        nodeFirstChildren[0] = -1;
+        nodeCount = 1;
+        expand(0);
+    }
+
+    /**
+     * Runs playouts until the deadline expires or the given number of playouts has been reached.
+     * At least one playout is always run, so that a move is found even if the deadline has already expired.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param maxPlayouts the maximum number of playouts.
+     * @return the most visited move, whose score is the expected number of boxes the player to move completes
+     * more than the opponent, while the nodes are the playouts and the depth is the deepest node of the tree.
+     */
+    public SearchResult search(long deadlineNanos, long maxPlayouts) {
+        return search(deadlineNanos, maxPlayouts, new CancelToken());
+    }
+
+    /**
+     * Runs playouts until the deadline expires, the given number of playouts has been reached or the search is
+     * cancelled. At least one playout is always run, so that a move is found even if the search is cancelled.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param maxPlayouts the maximum number of playouts.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the most visited move, as returned by {@link #search(long, long)}.
+     */
+    public SearchResult search(long deadlineNanos, long maxPlayouts, CancelToken cancelToken) {
+        final long start = System.nanoTime();
+        if (board.freeLineCount() == 0) {
+            return new SearchResult(-1, 0, 0, 0, 0, new int[0]);
+        }
+        long playouts = 0;
+        int maxDepth = 0;
+        do {
+            int node = 0, depth = 0, margin = 0;
+            while (nodeFirstChildren[node] != -1) {
+                node = select(node);
+                margin += play(nodeMoves[node], depth++);
+            }
+            if (nodeVisits[node] > 0 && board.freeLineCount() > 0 && expand(node)) {
+                node = nodeFirstChildren[node];
+                margin += play(nodeMoves[node], depth++);
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            for (int ply = depth; board.freeLineCount() > 0; ply++) {
+                margin += play(playoutMove(), ply);
+            }
+            while (board.placedLineCount() > rootPlacedLineCount) {
+                board.removeLastLine();
+            }
+            backPropagate(node, depth, 0.5 + 0.5 * margin / openBoxCount);
+            playouts++;
+        } while (playouts < maxPlayouts && System.nanoTime() - deadlineNanos < 0 && !cancelToken.isCancelled());
+        final int best = mostVisitedChild(0);
+        final int score = (int) Math.round((2 * nodeRewards[best] / nodeVisits[best] - 1) * openBoxCount);
+        return new SearchResult(nodeMoves[best], score, maxDepth, playouts, System.nanoTime() - start,
+                principalVariation());
+    }
+
+    /**
+     * Adds the statistics of the moves of the root to the given arrays, so that those of several searches of the same
+     * position can be merged.
+     *
+     * @param visits the number of playouts through each move, indexed by line id.
+     * @param rewards the sum of the rewards of the playouts through each move for the player to move, indexed by line id.
+     */
+    void addRootStatistics(long[] visits, double[] rewards) {
+        final int first = nodeFirstChildren[0], end = first + nodeChildCounts[0];
+        for (int child = first; child < end; child++) {
+            visits[nodeMoves[child]] += nodeVisits[child];
+            rewards[nodeMoves[child]] += nodeRewards[child];
+        }
+    }
+
+    /**
+     * @return the number of boxes not completed yet in the searched position.
+     */
+    int openBoxCount() {
+        return openBoxCount;
+    }
+
+    /**
+     * Picks the child maximizing the UCT formula, trying every child once first.
+     */
+    private int select(int node) {
+        final int first = nodeFirstChildren[node], end = first + nodeChildCounts[node];
+        final double logVisits = Math.log(nodeVisits[node]);
+        int best = first;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = first; child < end; child++) {
+            if (nodeVisits[child] == 0) {
+                return child;
+            }
+            final double value = nodeRewards[child] / nodeVisits[child]
+                    + EXPLORATION * Math.sqrt(logVisits / nodeVisits[child]);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Allocates a child for every free line of the current position, if they fit.
+     *
+     * @return true if the node has been expanded.
+     */
+    private boolean expand(int node) {
+        final int childCount = board.freeLineCount();
+        if (childCount == 0 || nodeCount + childCount > nodeMoves.length) {
+            return false;
+        }
+        for (int i = 0; i < childCount; i++) {
+            final int child = nodeCount + i;
+            nodeMoves[child] = board.freeLineAt(i);
+            nodeParents[child] = node;
+            nodeFirstChildren[child] = -1;
+        }
+        nodeFirstChildren[node] = nodeCount;
+        nodeChildCounts[node] = childCount;
+        nodeCount += childCount;
+        return true;
+    }
+
+    /**
+     * Places a line on the board copy.
+     *
+     * @return the boxes completed by the line, positive if drawn by the player to move at the root.
+     */
+    private int play(int move, int ply) {
+        int completedBoxes = 0;
+        final int adjacentBoxCount = board.adjacentBoxes(move, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (board.boxSideCount(adjacentBoxesBuffer[i]) == 3) {
+                completedBoxes++;
+            }
+        }
+        board.placeLine(move, Color.RED);
+        return (ply & 1) == 0 ? completedBoxes : -completedBoxes;
+    }
+
+    private int playoutMove() {
+        int move = board.capturingLine();
+        if (move == -1) {
+            move = board.randomSafeLine(random);
+        }
+        return move != -1 ? move : board.randomFreeLine(random);
+    }
+
+    /**
+     * Adds the reward of a playout to the node and its ancestors, each from the point of view of the player who
+     * drew its line.
+     *
+     * @param reward the reward of the player to move at the root.
+     */
+    private void backPropagate(int node, int depth, double reward) {
+        for (; node != -1; node = nodeParents[node], depth--) {
+            nodeVisits[node]++;
+            // the line of a node at odd depth is drawn by the player to move at the root
+            nodeRewards[node] += (depth & 1) == 1 ? reward : 1 - reward;
+        }
+    }
+
+    private int mostVisitedChild(int node) {
+        final int first = nodeFirstChildren[node], end = first + nodeChildCounts[node];
+        int best = first;
+        for (int child = first + 1; child < end; child++) {
+            if (nodeVisits[child] > nodeVisits[best]) {
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    private int[] principalVariation() {
+        int[] variation = new int[8];
+        int length = 0;
+        for (int node = 0; nodeFirstChildren[node] != -1; ) {
+            node = mostVisitedChild(node);
+            if (nodeVisits[node] == 0) {
+                break;
+            }
+            if (length == variation.length) {
+                variation = Arrays.copyOf(variation, 2 * length);
+            }
+            variation[length++] = nodeMoves[node];
+        }
+        return Arrays.copyOf(variation, length);
+    }
+}
@@ -0,0 +1,19 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Interface for the algorithms choosing the move of a computer player.
+ */
+@FunctionalInterface
+public interface MoveEngine {
+
+    /**
+     * Searches for the best move of a position.
+     *
+     * @param position the position to search, which is never modified.
+     * @param deadlineNanos the time, compared with {@link System#nanoTime()}, by which the search must answer.
+     * @param cancelToken the token through which the search can be cancelled before the deadline.
+     * @return the outcome of the search: the best move found, its score, the depth reached and the positions or
+     * playouts visited, with a move of -1 if the board is full or the search was cancelled before finding any.
+     */
+    SearchResult search(Board position, long deadlineNanos, CancelToken cancelToken);
+}
@@ -0,0 +1,336 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.Arrays;
+
+/**
+ * Class that searches for the best move of a position of a game of more than two players, with iterative deepening.
+ * <p>
+ * Players take turns in seat order after every line, and whoever draws a line is credited for the boxes it completes.
+ * Seats are numbered from the player to move, which is seat 0. Two searches are available:
+ * <ul>
+ *     <li>{@link Mode#MAX_N max-n}, where every player maximizes the boxes it completes, preferring the line with the
+ *     smallest id among equally good ones, with shallow pruning: as the boxes completed by all the players together
+ *     cannot exceed the open ones, a player can stop searching as soon as it gets so many that the player before it
+ *     would not choose the move leading there;</li>
+ *     <li>{@link Mode#PARANOID paranoid}, where all the others play together against the player to move, so that the
+ *     game becomes a two-player one and alpha-beta pruning applies, though the coalition moves several times in a row.</li>
+ * </ul>
+ * Branching grows with the number of players the search looks past before the player to move draws again, so moves
+ * are ordered for the player drawing them: those completing a box first, then the safe ones, then those drawing the
+ * third side of a single box and finally those drawing the third side of two. The move of the principal variation of
+ * the previous iteration and the last one that cut the search short at the same ply are tried before the others.
+ * The search works on a private copy of the board, placing and removing lines in place, and keeps the boxes completed
+ * by each seat up to date as it goes, so nothing is allocated while searching.
+ *
+ * @see AlphaBetaSearch
+ */
+public class MultiPlayerSearch {
+
+    /**
+     * The assumption about how the opponents play.
+     */
+    public enum Mode {
+        /** Every player maximizes its own boxes. */
+        MAX_N,
+        /** The opponents minimize the margin of the player to move over all of them together. */
+        PARANOID
+    }
+
+    // how many nodes are visited between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 10;
+    private final Board board;
+    private final int playerCount;
+    private final Mode mode;
+    // the boxes still open at the root, which bound the boxes completed by all the seats together
+    private final int openBoxCount;
+    // the boxes completed by each seat since the root along the line being searched
+    private final int[] completedBoxes;
+    // the boxes completed by each seat in the outcome of the position at each ply, searching with max-n
+    private final int[][] outcomes;
+    // the moves of each ply, in search order, allocated when the search first reaches the ply
+    private final int[][] moves;
+    // the principal variations found from each ply on, with their lengths, allocated along with the moves
+    private final int[][] principalVariations;
+    private final int[] principalVariationLengths;
+    // the last move of each ply that cut the search short
+    private final int[] killerMoves;
+    private final int[] adjacentBoxesBuffer = new int[2];
+    private final int[] boxSideLinesBuffer = new int[4];
+    private int[] previousPrincipalVariation = new int[0];
+    private long nodes;
+    private long deadline;
+    private boolean isAborted;
+    private CancelToken cancelToken;
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param playerCount the number of players of the game.
+     * @param mode how the opponents are assumed to play.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public MultiPlayerSearch(Board position, int playerCount, Mode mode) {
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        if (playerCount < 2) {
+            throw new IllegalArgumentException("A game has at least two players");
+        }
+        this.playerCount = playerCount;
+        this.mode = mode;
+        board = position.copy();
+        openBoxCount = board.boxCount() - board.boxCountWithSides(4);
+        completedBoxes = new int[playerCount];
+        final int maxDepth = board.freeLineCount();
+        outcomes = new int[maxDepth + 1][playerCount];
+        moves = new int[maxDepth + 1][];
+        principalVariations = new int[maxDepth + 1][];
+        principalVariationLengths = new int[maxDepth + 1];
+        killerMoves = new int[maxDepth + 1];
+        Arrays.fill(killerMoves, -1);
+    }
+
+    /**
+     * Searches deeper and deeper until the deadline expires, the search is cancelled or the whole game has been
+     * explored. The first iteration always runs to completion unless the search is cancelled, so that a move is found
+     * even if the deadline has already expired.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the outcome of the deepest completed iteration, scored as the boxes the player to move completes more
+     * than all the others together, with a move of -1 if none has been completed.
+     */
+    public SearchResult search(long deadlineNanos, CancelToken cancelToken) {
+        final long start = System.nanoTime();
+        this.cancelToken = cancelToken;
+        final int maxDepth = board.freeLineCount();
+        if (maxDepth == 0) {
+            return new SearchResult(-1, 0, 0, 0, 0, new int[0]);
+        }
+        int bestMove = -1, bestScore = 0, completedDepth = 0;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            // the first iteration cannot be aborted
+            deadline = depth == 1 ? Long.MAX_VALUE : deadlineNanos;
+            isAborted = cancelToken.isCancelled() || depth > 1 && System.nanoTime() - deadlineNanos >= 0;
+            if (isAborted) {
+                break;
+            }
+            final int score = switch (mode) {
+                case MAX_N -> {
+                    maxN(depth, Integer.MAX_VALUE, 0);
+                    yield margin(outcomes[0]);
+                }
+                case PARANOID -> paranoid(depth, -openBoxCount - 1, openBoxCount + 1, 0);
+            };
+            if (isAborted) {
+                break;
+            }
+            bestScore = score;
+            bestMove = principalVariations[0][0];
+            completedDepth = depth;
+            previousPrincipalVariation = Arrays.copyOf(principalVariations[0], principalVariationLengths[0]);
+        }
+        return new SearchResult(bestMove, bestScore, completedDepth, nodes, System.nanoTime() - start,
+                previousPrincipalVariation.clone());
+    }
+
+    /**
+     * Searches the position with max-n, writing the boxes each seat completes into the outcome of the ply.
+     *
+     * @param bound the boxes of the seat to move beyond which the seat before it would not choose this position.
+     */
+    private void maxN(int depth, int bound, int ply) {
+        allocateBuffers(ply);
+        principalVariationLengths[ply] = 0;
+        if (isAbortedNow() || board.freeLineCount() == 0 || depth == 0) {
+            evaluate(outcomes[ply], ply);
+            return;
+        }
+        final int seat = ply % playerCount;
+        final int[] outcome = outcomes[ply], childOutcome = outcomes[ply + 1];
+        final int moveCount = orderMoves(moves[ply], ply);
+        for (int i = 0; i < moveCount; i++) {
+            final int move = moves[ply][i];
+            final int completed = boxesCompletedBy(move);
+            completedBoxes[seat] += completed;
+            board.placeLine(move, Color.RED);
+            // the next seat stops once the boxes it gets leave this one fewer than it has found already
+            maxN(depth - 1, i == 0 ? Integer.MAX_VALUE : openBoxCount - outcome[seat], ply + 1);
+            board.removeLastLine();
+            completedBoxes[seat] -= completed;
+            if (isAborted) {
+                return;
+            }
+            // ties go to the line with the smallest id, so that the outcome does not depend on the order of the moves
+            if (i == 0 || childOutcome[seat] > outcome[seat]
+                    || childOutcome[seat] == outcome[seat] && move < principalVariations[ply][0]) {
+                System.arraycopy(childOutcome, 0, outcome, 0, playerCount);
+                updatePrincipalVariation(move, ply);
+                // strictly, as a tie could still be chosen by the seat before for the id of its line
+                if (outcome[seat] > bound) {
+                    killerMoves[ply] = move;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches the position with alpha-beta, as if all the other seats played together against seat 0.
+     *
+     * @return the boxes seat 0 completes more than all the others together.
+     */
+    private int paranoid(int depth, int alpha, int beta, int ply) {
+        allocateBuffers(ply);
+        principalVariationLengths[ply] = 0;
+        if (isAbortedNow() || board.freeLineCount() == 0 || depth == 0) {
+            evaluate(outcomes[ply], ply);
+            return margin(outcomes[ply]);
+        }
+        final int seat = ply % playerCount;
+        final boolean isMaximizing = seat == 0;
+        final int moveCount = orderMoves(moves[ply], ply);
+        int best = isMaximizing ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < moveCount; i++) {
+            final int move = moves[ply][i];
+            final int completed = boxesCompletedBy(move);
+            completedBoxes[seat] += completed;
+            board.placeLine(move, Color.RED);
+            final int score = paranoid(depth - 1, alpha, beta, ply + 1);
+            board.removeLastLine();
+            completedBoxes[seat] -= completed;
+            if (isAborted) {
+                return 0;
+            }
+            if (isMaximizing ? score > best : score < best) {
+                best = score;
+                updatePrincipalVariation(move, ply);
+                if (isMaximizing) {
+                    alpha = Math.max(alpha, score);
+                } else {
+                    beta = Math.min(beta, score);
+                }
+                if (alpha >= beta) {
+                    killerMoves[ply] = move;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Allocates the buffers of the given ply the first time the search reaches it, so that only the plies iterative
+     * deepening actually reaches take memory.
+     */
+    private void allocateBuffers(int ply) {
+        if (moves[ply] == null) {
+            moves[ply] = new int[board.freeLineCount()];
+            principalVariations[ply] = new int[board.freeLineCount()];
+        }
+    }
+
+    private boolean isAbortedNow() {
+        if ((++nodes & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && (cancelToken.isCancelled() || System.nanoTime() - deadline >= 0)) {
+            isAborted = true;
+        }
+        return isAborted;
+    }
+
+    /**
+     * Estimates the outcome of a position whose search has been cut off: the boxes completed so far, plus one for the
+     * seat to move if any box has three sides.
+     */
+    private void evaluate(int[] outcome, int ply) {
+        System.arraycopy(completedBoxes, 0, outcome, 0, playerCount);
+        if (board.boxCountWithSides(3) > 0) {
+            outcome[ply % playerCount]++;
+        }
+    }
+
+    private int margin(int[] outcome) {
+        int margin = outcome[0];
+        for (int seat = 1; seat < playerCount; seat++) {
+            margin -= outcome[seat];
+        }
+        return margin;
+    }
+
+    private void updatePrincipalVariation(int move, int ply) {
+        principalVariations[ply][0] = move;
+        System.arraycopy(principalVariations[ply + 1], 0, principalVariations[ply], 1, principalVariationLengths[ply + 1]);
+        principalVariationLengths[ply] = principalVariationLengths[ply + 1] + 1;
+    }
+
+    /**
+     * Writes the free lines into the given array: those completing a box first, then the safe ones, then those drawing
+     * the third side of one box and finally those drawing the third side of two. The move of the previous principal
+     * variation and the killer move of the ply are moved in front.
+     *
+     * @return the number of moves.
+     */
+    private int orderMoves(int[] ordered, int ply) {
+        int count = 0;
+        for (int i = 0; i < board.boxCountWithSides(3); i++) {
+            board.boxSideLines(board.boxWithSides(3, i), boxSideLinesBuffer);
+            for (int side : boxSideLinesBuffer) {
+                if (!board.isLinePlaced(side) && indexOf(ordered, count, side) == -1) {
+                    ordered[count++] = side;
+                }
+            }
+        }
+        final int safeLineCount = board.safeLineCount();
+        for (int i = 0; i < safeLineCount; i++) {
+            ordered[count++] = board.freeLineAt(i);
+        }
+        for (int offeredBoxes = 1; offeredBoxes <= 2; offeredBoxes++) {
+            for (int i = safeLineCount; i < board.freeLineCount(); i++) {
+                final int line = board.freeLineAt(i);
+                if (boxesCompletedBy(line) == 0 && boxesOfferedBy(line) == offeredBoxes) {
+                    ordered[count++] = line;
+                }
+            }
+        }
+        moveToFront(ordered, count, killerMoves[ply]);
+        moveToFront(ordered, count, ply < previousPrincipalVariation.length ? previousPrincipalVariation[ply] : -1);
+        return count;
+    }
+
+    private static void moveToFront(int[] ordered, int count, int move) {
+        final int index = indexOf(ordered, count, move);
+        if (index > 0) {
+            System.arraycopy(ordered, 0, ordered, 1, index);
+            ordered[0] = move;
+        }
+    }
+
+    private int boxesCompletedBy(int line) {
+        return boxesNextTo(line, 3);
+    }
+
+    /**
+     * @return the number of boxes the line draws the third side of, which the next seat can complete.
+     */
+    private int boxesOfferedBy(int line) {
+        return boxesNextTo(line, 2);
+    }
+
+    private int boxesNextTo(int line, int sides) {
+        int boxes = 0;
+        final int adjacentBoxCount = board.adjacentBoxes(line, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (board.boxSideCount(adjacentBoxesBuffer[i]) == sides) {
+                boxes++;
+            }
+        }
+        return boxes;
+    }
+
+    private static int indexOf(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
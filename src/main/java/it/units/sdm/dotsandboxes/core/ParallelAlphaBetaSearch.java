@@ -0,0 +1,101 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Class that runs alpha-beta search on several threads with Lazy SMP: every thread runs the same iterative deepening
+ * search of the position, sharing nothing but a {@link TranspositionTable}.
+ * <p>
+ * The calling thread runs the main search, whose outcome is returned, while helper threads start deeper, half of
+ * them one ply and half two plies ahead, so that they keep reaching the depths the main search is about to search.
+ * What they store in the table cuts the main search short and orders its moves. The helpers are cancelled as soon as
+ * the main search returns.
+ *
+ * @see AlphaBetaSearch
+ */
+public class ParallelAlphaBetaSearch {
+
+    private final Board position;
+    private final TranspositionTable table;
+    private final Evaluation evaluation;
+    private final int threadCount;
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param table the table shared by the threads.
+     * @param threadCount the number of threads searching, the calling one included.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public ParallelAlphaBetaSearch(Board position, TranspositionTable table, int threadCount) {
+        this(position, table, Evaluation.DEFAULT, threadCount);
+    }
+
+    /**
+     * @param position the position to search, which is copied and never modified.
+     * @param table the table shared by the threads.
+     * @param evaluation the evaluation of the positions whose search is cut off.
+     * @param threadCount the number of threads searching, the calling one included.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public ParallelAlphaBetaSearch(Board position, TranspositionTable table, Evaluation evaluation, int threadCount) {
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one thread is needed to search");
+        }
+        this.position = position;
+        this.table = table;
+        this.evaluation = evaluation;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Searches on every thread until the deadline expires, the search is cancelled or the main search has explored
+     * the whole game.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the outcome of the main search, with the nodes visited by all the threads.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the helper ones.
+     * @throws IllegalStateException if a helper thread has failed, with what it has thrown as the cause.
+     * @see AlphaBetaSearch#search(long, CancelToken)
+     */
+    public SearchResult search(long deadlineNanos, CancelToken cancelToken) throws InterruptedException {
+        final SearchResult[] helperResults = new SearchResult[threadCount - 1];
+        final Thread[] helpers = new Thread[threadCount - 1];
+        // what each helper has thrown, rethrown on the calling thread once all of them have returned
+        final Throwable[] helperFailures = new Throwable[threadCount - 1];
+        final CancelToken helperCancelToken = new CancelToken();
+        table.newSearch();
+        for (int i = 0; i < helpers.length; i++) {
+            final int index = i;
+            // every helper copies the position on its own thread, so that the main search starts right away
+            helpers[i] = new Thread(() -> {
+                try {
+                    helperResults[index] = new AlphaBetaSearch(position, table, evaluation)
+                            .iterate(deadlineNanos, helperCancelToken, 2 + index % 2);
+                } catch (Throwable t) {
+                    helperFailures[index] = t;
+                }
+            }, "alpha-beta-" + i);
+            helpers[i].start();
+        }
+        final SearchResult result;
+        try {
+            result = new AlphaBetaSearch(position, table, evaluation).iterate(deadlineNanos, cancelToken, 1);
+        } finally {
+            helperCancelToken.cancel();
+            for (Thread helper : helpers) {
+                helper.join();
+            }
+        }
+        long nodes = result.nodes();
+        for (int i = 0; i < helpers.length; i++) {
+            if (helperFailures[i] != null) {
+                throw new IllegalStateException("Helper search " + helpers[i].getName() + " failed", helperFailures[i]);
+            }
+            nodes += helperResults[i].nodes();
+        }
+        return new SearchResult(result.move(), result.score(), result.depth(), nodes, result.elapsedNanos(),
+                result.principalVariation());
+    }
+}
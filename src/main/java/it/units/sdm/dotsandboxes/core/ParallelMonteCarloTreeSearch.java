@@ -0,0 +1,121 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.SplittableRandom;
+
+/**
+ * Class that runs Monte Carlo Tree Search on several threads with root parallelism: every thread grows its own tree
+ * of the same position with its own playouts, and the statistics of the moves of the roots are summed at the end.
+ * Threads share nothing while searching, so the number of playouts scales with the number of cores.
+ *
+ * @see MonteCarloTreeSearch
+ */
+public class ParallelMonteCarloTreeSearch {
+
+    private final Board position;
+    private final int maxNodes;
+    private final int threadCount;
+
+    /**
+     * @param position the position to search, which must not be modified until the search returns.
+     * @param maxNodes the maximum number of nodes of all the trees together.
+     * @param threadCount the number of threads searching.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public ParallelMonteCarloTreeSearch(Board position, int maxNodes, int threadCount) {
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one thread is needed to search");
+        }
+        this.position = position;
+        this.maxNodes = maxNodes;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Runs playouts on every thread until the deadline expires or the given number of playouts has been reached.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param maxPlayouts the maximum number of playouts of all the threads together.
+     * @return the most visited move across all the trees, with the total number of playouts as nodes and the
+     * principal variation of one of the trees preferring that move.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the searching ones.
+     * @throws IllegalStateException if a searching thread has failed, with what it has thrown as the cause.
+     * @see MonteCarloTreeSearch#search(long, long)
+     */
+    public SearchResult search(long deadlineNanos, long maxPlayouts) throws InterruptedException {
+        return search(deadlineNanos, maxPlayouts, new CancelToken());
+    }
+
+    /**
+     * Runs playouts on every thread until the deadline expires, the given number of playouts has been reached or
+     * the search is cancelled.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param maxPlayouts the maximum number of playouts of all the threads together.
+     * @param cancelToken the token through which every thread can be cancelled from another one.
+     * @return the most visited move across all the trees, as returned by {@link #search(long, long)}.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the searching ones.
+     * @throws IllegalStateException if a searching thread has failed, with what it has thrown as the cause.
+     */
+    public SearchResult search(long deadlineNanos, long maxPlayouts, CancelToken cancelToken) throws InterruptedException {
+        final long start = System.nanoTime();
+        if (position.freeLineCount() == 0) {
+            return new SearchResult(-1, 0, 0, 0, 0, new int[0]);
+        }
+        final MonteCarloTreeSearch[] searches = new MonteCarloTreeSearch[threadCount];
+        final SearchResult[] results = new SearchResult[threadCount];
+        final Thread[] threads = new Thread[threadCount];
+        // what each thread has thrown, rethrown on the calling thread once all of them have returned
+        final Throwable[] failures = new Throwable[threadCount];
+        final long seed = new SplittableRandom().nextLong();
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            final long playouts = maxPlayouts / threadCount + (i < maxPlayouts % threadCount ? 1 : 0);
+            threads[i] = new Thread(() -> {
+                try {
+                    searches[index] = new MonteCarloTreeSearch(position, Math.max(1, maxNodes / threadCount),
+                            new SplittableRandom(seed + index));
+                    results[index] = searches[index].search(deadlineNanos, Math.max(1, playouts), cancelToken);
+                } catch (Throwable t) {
+                    failures[index] = t;
+                }
+            }, "mcts-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            if (failures[i] != null) {
+                throw new IllegalStateException("Search " + threads[i].getName() + " failed", failures[i]);
+            }
+        }
+        final long[] visits = new long[position.totalLineCount()];
+        final double[] rewards = new double[position.totalLineCount()];
+        long playouts = 0;
+        int depth = 0;
+        for (int i = 0; i < threadCount; i++) {
+            searches[i].addRootStatistics(visits, rewards);
+            playouts += results[i].nodes();
+            depth = Math.max(depth, results[i].depth());
+        }
+        int best = -1;
+        for (int move = 0; move < visits.length; move++) {
+            if (visits[move] > 0 && (best == -1 || visits[move] > visits[best])) {
+                best = move;
+            }
+        }
+        int[] principalVariation = new int[]{best};
+        for (int i = 0; i < threadCount; i++) {
+            if (results[i].move() == best) {
+                principalVariation = results[i].principalVariation();
+                break;
+            }
+        }
+        final int openBoxCount = searches[0].openBoxCount();
+        final int score = (int) Math.round((2 * rewards[best] / visits[best] - 1) * openBoxCount);
+        return new SearchResult(best, score, depth, playouts, System.nanoTime() - start, principalVariation);
+    }
+}
@@ -0,0 +1,333 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Class that solves positions exactly with depth-first proof-number search (df-pn).
+ * <p>
+ * The question answered is whether the player to move can complete at least a given number of the boxes still open.
+ * As players alternate after every line, a line completing c boxes answers it if the opponent cannot then reach a
+ * margin of c minus the one required plus one, so every node is the position together with the margin required from
+ * the player to move. Each node has a proof number, the least number of nodes that must be proved to prove it,
+ * and a disproof number: the search always expands the most proving node, going deeper only while the numbers stay
+ * below thresholds set by the parent, and keeps the numbers of the nodes in a fixed-size table.
+ * <p>
+ * The exact value of a position is found by a binary search on the number of boxes, and can be stored in a
+ * {@link TranspositionTable} shared with {@link AlphaBetaSearch}, which then uses it at any depth.
+ * <p>
+ * The search is meant for analysing positions rather than playing them, and no playing engine calls it: as every
+ * proof of the binary search starts over, solving a position takes several times as long as a full-depth alpha-beta
+ * search with a transposition table, which the engines run instead.
+ */
+public class ProofNumberSearch {
+
+    /**
+     * The answers to the question asked to the search.
+     */
+    public enum Answer {
+        /** The player to move can complete the required boxes. */
+        YES,
+        /** The player to move cannot complete the required boxes. */
+        NO,
+        /** The search has run out of time or has been cancelled. */
+        UNKNOWN
+    }
+
+    private static final int INFINITY = Integer.MAX_VALUE;
+    // how many nodes are visited between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 10;
+    // bytes per entry of the table: the key and the two numbers
+    private static final int ENTRY_SIZE = Long.BYTES + 2 * Integer.BYTES;
+    private final Board board;
+    private final TranspositionTable transpositionTable;
+    private final long sizeKey;
+    private final int openBoxCount;
+    // the table of the proof and disproof numbers, made of buckets of two entries
+    private final long[] keys;
+    private final int[] proofNumbers;
+    private final int[] disproofNumbers;
+    private final int bucketMask;
+    // the children of the node of each ply: their line, the margin required from the opponent and their numbers
+    private final int[][] childMoves;
+    private final int[][] childMargins;
+    private final long[][] childKeys;
+    private final int[][] childProofNumbers;
+    private final int[][] childDisproofNumbers;
+    private final int[] adjacentBoxesBuffer = new int[2];
+    // the numbers of the last node searched
+    private int lastProofNumber, lastDisproofNumber;
+    private long nodes;
+    private long deadline;
+    private CancelToken cancelToken;
+    private boolean isAborted;
+
+    /**
+     * @param position the position to solve, which is copied and never modified.
+     * @param megabytes the memory the table of the proof and disproof numbers can use.
+     * @param transpositionTable the table exact values are stored in, or null.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public ProofNumberSearch(Board position, int megabytes, TranspositionTable transpositionTable) {
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Proof number table size must be at least 1 MB");
+        }
+        board = position.copy();
+        this.transpositionTable = transpositionTable;
+        sizeKey = AlphaBetaSearch.sizeKey(position);
+        openBoxCount = board.boxCount() - board.boxCountWithSides(4);
+        final int buckets = (int) Math.min(1 << 28, Long.highestOneBit(((long) megabytes << 20) / (2 * ENTRY_SIZE)));
+        keys = new long[2 * buckets];
+        proofNumbers = new int[2 * buckets];
+        disproofNumbers = new int[2 * buckets];
+        bucketMask = buckets - 1;
+        final int maxDepth = board.freeLineCount();
+        childMoves = new int[maxDepth + 1][];
+        childMargins = new int[maxDepth + 1][];
+        childKeys = new long[maxDepth + 1][];
+        childProofNumbers = new int[maxDepth + 1][];
+        childDisproofNumbers = new int[maxDepth + 1][];
+        for (int ply = 0; ply <= maxDepth; ply++) {
+            childMoves[ply] = new int[maxDepth - ply];
+            childMargins[ply] = new int[maxDepth - ply];
+            childKeys[ply] = new long[maxDepth - ply];
+            childProofNumbers[ply] = new int[maxDepth - ply];
+            childDisproofNumbers[ply] = new int[maxDepth - ply];
+        }
+    }
+
+    /**
+     * Answers whether the player to move can complete at least the given number of the boxes still open.
+     *
+     * @param boxes the number of boxes.
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the answer, {@link Answer#UNKNOWN} if it has not been found before the deadline or the cancellation.
+     */
+    public Answer prove(int boxes, long deadlineNanos, CancelToken cancelToken) {
+        deadline = deadlineNanos;
+        this.cancelToken = cancelToken;
+        isAborted = false;
+        return proveMargin(2 * boxes - openBoxCount, 0);
+    }
+
+    /**
+     * Finds the exact value of the position and a move achieving it, storing them in the transposition table if any.
+     *
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the best move and the number of boxes the player to move completes more than the opponent, with the
+     * nodes visited by all the proofs, or null if the position has not been solved before the deadline or the
+     * cancellation.
+     */
+    public SearchResult solve(long deadlineNanos, CancelToken cancelToken) {
+        final long start = System.nanoTime();
+        if (board.freeLineCount() == 0) {
+            return new SearchResult(-1, 0, 0, 0, 0, new int[0]);
+        }
+        deadline = deadlineNanos;
+        this.cancelToken = cancelToken;
+        isAborted = false;
+        nodes = 0;
+        // the player to move can always complete no box, and never more than all of them
+        int low = 0, high = openBoxCount;
+        while (low < high) {
+            final int boxes = (low + high + 1) / 2;
+            switch (proveMargin(2 * boxes - openBoxCount, 0)) {
+                case YES -> low = boxes;
+                case NO -> high = boxes - 1;
+                case UNKNOWN -> {
+                    return null;
+                }
+            }
+        }
+        final int score = 2 * low - openBoxCount;
+        final int[] moves = childMoves[0].clone();
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = board.freeLineAt(i);
+        }
+        int bestMove = -1;
+        for (int i = 0; i < moves.length && bestMove == -1; i++) {
+            final int move = moves[i];
+            final int completedBoxes = boxesCompletedBy(move);
+            board.placeLine(move, Color.RED);
+            final Answer answer = proveMargin(completedBoxes - score + 1, 1);
+            board.removeLastLine();
+            if (answer == Answer.UNKNOWN) {
+                return null;
+            }
+            if (answer == Answer.NO) {
+                bestMove = move;
+            }
+        }
+        if (transpositionTable != null) {
+            transpositionTable.store(board.canonicalHash() ^ sizeKey,
+                    board.transformLine(bestMove, board.canonicalSymmetry()), score, board.freeLineCount(),
+                    TranspositionTable.EXACT);
+        }
+        return new SearchResult(bestMove, score, board.freeLineCount(), nodes, System.nanoTime() - start,
+                new int[]{bestMove});
+    }
+
+    /**
+     * @return whether the player to move in the current position can reach the given margin.
+     */
+    private Answer proveMargin(int margin, int ply) {
+        final int proofNumber = initialProofNumber(margin), disproofNumber = initialDisproofNumber(margin);
+        if (proofNumber == 0 || disproofNumber == 0) {
+            return proofNumber == 0 ? Answer.YES : Answer.NO;
+        }
+        search(margin, keyOf(margin), INFINITY, INFINITY, ply);
+        if (isAborted) {
+            return Answer.UNKNOWN;
+        }
+        return lastProofNumber == 0 ? Answer.YES : Answer.NO;
+    }
+
+    /**
+     * Expands the most proving nodes below the current one until its proof number reaches the first threshold or its
+     * disproof number reaches the second one, leaving its numbers in {@link #lastProofNumber} and
+     * {@link #lastDisproofNumber}.
+     */
+    private void search(int margin, long key, int proofThreshold, int disproofThreshold, int ply) {
+        if ((++nodes & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                && (cancelToken.isCancelled() || System.nanoTime() - deadline >= 0)) {
+            isAborted = true;
+        }
+        if (isAborted) {
+            return;
+        }
+        final int lineCount = board.freeLineCount();
+        final int[] moves = childMoves[ply], margins = childMargins[ply];
+        final int[] childProofs = childProofNumbers[ply], childDisproofs = childDisproofNumbers[ply];
+        final long[] keys = childKeys[ply];
+        // the lines are listed first, as placing and removing a line reorders the free ones
+        for (int i = 0; i < lineCount; i++) {
+            moves[i] = board.freeLineAt(i);
+        }
+        int childCount = 0;
+        for (int i = 0; i < lineCount; i++) {
+            final int move = moves[i], childMargin = boxesCompletedBy(move) - margin + 1;
+            board.placeLine(move, Color.RED);
+            int childProof = initialProofNumber(childMargin), childDisproof = initialDisproofNumber(childMargin);
+            long childKey = 0;
+            boolean isDuplicate = false;
+            if (childProof != 0 && childDisproof != 0) {
+                childKey = keyOf(childMargin);
+                // lines leading to reflections or rotations of the same position are tried once
+                isDuplicate = indexOf(keys, childCount, childKey) != -1;
+                final int entry = lookUp(childKey);
+                if (entry != -1) {
+                    childProof = proofNumbers[entry];
+                    childDisproof = disproofNumbers[entry];
+                }
+            }
+            board.removeLastLine();
+            if (!isDuplicate) {
+                moves[childCount] = move;
+                margins[childCount] = childMargin;
+                keys[childCount] = childKey;
+                childProofs[childCount] = childProof;
+                childDisproofs[childCount] = childDisproof;
+                childCount++;
+            }
+        }
+        int proofNumber, disproofNumber;
+        while (true) {
+            // the node is proved as soon as a child is disproved, and disproved once all the children are proved
+            proofNumber = INFINITY;
+            long disproofSum = 0;
+            int best = -1, secondBestDisproof = INFINITY;
+            for (int i = 0; i < childCount; i++) {
+                if (childDisproofs[i] < proofNumber) {
+                    secondBestDisproof = proofNumber;
+                    proofNumber = childDisproofs[i];
+                    best = i;
+                } else if (childDisproofs[i] < secondBestDisproof) {
+                    secondBestDisproof = childDisproofs[i];
+                }
+                disproofSum += childProofs[i];
+            }
+            disproofNumber = (int) Math.min(disproofSum, INFINITY);
+            if (proofNumber >= proofThreshold || disproofNumber >= disproofThreshold) {
+                break;
+            }
+            final int childProofThreshold = (int) Math.min((long) disproofThreshold - disproofNumber + childProofs[best],
+                    INFINITY);
+            final int childDisproofThreshold = (int) Math.min(proofThreshold, secondBestDisproof + 1L);
+            board.placeLine(moves[best], Color.RED);
+            search(margins[best], keys[best], childProofThreshold, childDisproofThreshold, ply + 1);
+            board.removeLastLine();
+            if (isAborted) {
+                return;
+            }
+            childProofs[best] = lastProofNumber;
+            childDisproofs[best] = lastDisproofNumber;
+        }
+        store(key, proofNumber, disproofNumber);
+        lastProofNumber = proofNumber;
+        lastDisproofNumber = disproofNumber;
+    }
+
+    /**
+     * @return 0 if the player to move is sure to reach the margin, infinity if it cannot, 1 if it is not known yet.
+     */
+    private int initialProofNumber(int margin) {
+        final int openBoxes = board.boxCount() - board.boxCountWithSides(4);
+        return margin <= -openBoxes ? 0 : margin > openBoxes ? INFINITY : 1;
+    }
+
+    private int initialDisproofNumber(int margin) {
+        final int openBoxes = board.boxCount() - board.boxCountWithSides(4);
+        return margin > openBoxes ? 0 : margin <= -openBoxes ? INFINITY : 1;
+    }
+
+    private long keyOf(int margin) {
+        return board.canonicalHash() ^ sizeKey ^ Board.zobristKey(Integer.MIN_VALUE / 2 + margin);
+    }
+
+    /**
+     * @return the index of the entry of the position, or -1 if it is not in the table.
+     */
+    private int lookUp(long key) {
+        final int bucket = ((int) (key >>> 32) & bucketMask) * 2;
+        return keys[bucket] == key ? bucket : keys[bucket + 1] == key ? bucket + 1 : -1;
+    }
+
+    /**
+     * Stores the numbers of a position in the first entry of its bucket, unless that entry holds another position
+     * that is solved while this one is not.
+     */
+    private void store(long key, int proofNumber, int disproofNumber) {
+        final int bucket = ((int) (key >>> 32) & bucketMask) * 2;
+        int entry = bucket;
+        if (keys[bucket + 1] == key || keys[bucket] != key && keys[bucket] != 0
+                && (proofNumbers[bucket] == 0 || disproofNumbers[bucket] == 0)
+                && proofNumber != 0 && disproofNumber != 0) {
+            entry = bucket + 1;
+        }
+        keys[entry] = key;
+        proofNumbers[entry] = proofNumber;
+        disproofNumbers[entry] = disproofNumber;
+    }
+
+    private static int indexOf(long[] array, int length, long value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int boxesCompletedBy(int line) {
+        int completedBoxes = 0;
+        final int adjacentBoxCount = board.adjacentBoxes(line, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (board.boxSideCount(adjacentBoxesBuffer[i]) == 3) {
+                completedBoxes++;
+            }
+        }
+        return completedBoxes;
+    }
+}
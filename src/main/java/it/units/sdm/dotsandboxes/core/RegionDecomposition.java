@@ -0,0 +1,316 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.Arrays;
+
+/**
+ * Class that splits the position on a board into independent regions, i.e. the components of its strings-and-coins
+ * graph: the boxes still open are the coins, joined by the free lines they share, while a free line on the border of
+ * the board or next to a completed box ties a single box to the ground. Drawing a line only changes the region it
+ * belongs to.
+ * <p>
+ * Every region has a hash that only depends on its shape, i.e. on the free sides of its boxes relative to each other:
+ * it does not change when the region is moved, reflected or rotated, so equal regions are recognized wherever they
+ * lie and on boards of any size. The hashes are combined into a {@link #positionKey() key} of the whole position
+ * that does not depend on the order of the regions either.
+ * <p>
+ * A decomposition is bound to a board. It is computed from scratch by {@link #decompose()}, and then kept up to date
+ * by {@link #linePlaced(int)} and {@link #lineRemoved(int)} after every change of the board: only the region of the
+ * line is walked again and hashed again, reusing the buffers, so nothing is allocated.
+ */
+public class RegionDecomposition {
+
+    private static final int TOP = 1, BOTTOM = 2, LEFT = 4, RIGHT = 8;
+    // added before mixing, so that no region and no code hashes to 0, which would leave no trace in the sums
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private final Board board;
+    private final int boxRowLength;
+    // the slot of the region of each box, -1 if the box is completed
+    private final int[] regionOfBox;
+    // the boxes of each region as a linked list, from the first box of its slot through the next box of each box
+    private final int[] firstBoxes, nextBoxes;
+    private final long[] slotHashes;
+    // the slots of the regions, in no particular order, with the index of each slot among them
+    private final int[] regionSlots, regionIndexes;
+    // the slots not used by any region
+    private final int[] freeSlots;
+    private int freeSlotCount;
+    private int regionCount;
+    private long positionKey;
+    // the walk during which each box has last been visited, so that visits need not be cleared between walks
+    private final int[] visitStamps;
+    private int stamp;
+    private final int[] regionBoxesBuffer;
+    private final long[] codesBuffer, canonicalCodesBuffer;
+    private final int[] lineBoxesBuffer = new int[2];
+    private final int[] adjacentBoxesBuffer = new int[2];
+    private final int[] boxSideLinesBuffer = new int[4];
+
+    /**
+     * @param board the board to decompose, which must not be huge.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public RegionDecomposition(Board board) {
+        if (board.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be decomposed.");
+        }
+        this.board = board;
+        boxRowLength = board.width() - 1;
+        final int boxCount = board.boxCount();
+        regionOfBox = new int[boxCount];
+        firstBoxes = new int[boxCount];
+        nextBoxes = new int[boxCount];
+        slotHashes = new long[boxCount];
+        regionSlots = new int[boxCount];
+        regionIndexes = new int[boxCount];
+        freeSlots = new int[boxCount];
+        visitStamps = new int[boxCount];
+        regionBoxesBuffer = new int[boxCount];
+        codesBuffer = new long[boxCount];
+        canonicalCodesBuffer = new long[boxCount];
+    }
+
+    /**
+     * Splits the current position of the board into regions from scratch.
+     *
+     * @return the number of regions.
+     */
+    public int decompose() {
+        final int boxCount = regionOfBox.length;
+        regionCount = 0;
+        positionKey = 0;
+        freeSlotCount = boxCount;
+        for (int slot = 0; slot < boxCount; slot++) {
+            // slots are taken from the end of the stack, so the lowest ones come first
+            freeSlots[slot] = boxCount - 1 - slot;
+        }
+        Arrays.fill(regionOfBox, -1);
+        nextStamp();
+        for (int box = 0; box < boxCount; box++) {
+            if (board.boxSideCount(box) < 4 && visitStamps[box] != stamp) {
+                addRegionFrom(box);
+            }
+        }
+        return regionCount;
+    }
+
+    /**
+     * Updates the regions after the given line has been placed onto the board: its region is split in two if the line
+     * was the only link between them, and loses the boxes the line completes.
+     *
+     * @param line the id of the line just placed.
+     * @return the number of regions.
+     */
+    public int linePlaced(int line) {
+        return update(line);
+    }
+
+    /**
+     * Updates the regions after the given line has been removed from the board: the regions of the boxes next to it,
+     * or the boxes it reopens, are merged into one.
+     *
+     * @param line the id of the line just removed.
+     * @return the number of regions.
+     */
+    public int lineRemoved(int line) {
+        return update(line);
+    }
+
+    /**
+     * @return the number of regions.
+     */
+    public int regionCount() {
+        return regionCount;
+    }
+
+    /**
+     * @param region the index of a region.
+     * @return the hash of the shape of the region.
+     */
+    public long regionHash(int region) {
+        return slotHashes[regionSlots[region]];
+    }
+
+    /**
+     * Writes the free lines of a region into the given array.
+     *
+     * @param region the index of a region.
+     * @param lines the array the lines are written to.
+     * @param offset the index of the array the first line is written to.
+     * @return the number of lines written.
+     */
+    public int regionLines(int region, int[] lines, int offset) {
+        int count = 0;
+        for (int box = firstBoxes[regionSlots[region]]; box != -1; box = nextBoxes[box]) {
+            board.boxSideLines(box, boxSideLinesBuffer);
+            for (int side : boxSideLinesBuffer) {
+                // a line between two boxes is written along with the smaller one
+                if (!board.isLinePlaced(side) && (board.adjacentBoxes(side, adjacentBoxesBuffer) == 1
+                        || Math.min(adjacentBoxesBuffer[0], adjacentBoxesBuffer[1]) == box)) {
+                    lines[offset + count++] = side;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a key of the position made of the hashes of its regions, regardless of their order and placement.
+     */
+    public long positionKey() {
+        return positionKey;
+    }
+
+    /**
+     * Walks again the regions of the boxes next to the line, which are the only ones a change of the line affects.
+     */
+    private int update(int line) {
+        final int boxCount = board.adjacentBoxes(line, lineBoxesBuffer);
+        for (int i = 0; i < boxCount; i++) {
+            final int slot = regionOfBox[lineBoxesBuffer[i]];
+            if (slot != -1) {
+                removeRegion(slot);
+            }
+        }
+        nextStamp();
+        for (int i = 0; i < boxCount; i++) {
+            final int box = lineBoxesBuffer[i];
+            if (board.boxSideCount(box) < 4 && visitStamps[box] != stamp) {
+                addRegionFrom(box);
+            }
+        }
+        return regionCount;
+    }
+
+    private void removeRegion(int slot) {
+        for (int box = firstBoxes[slot]; box != -1; box = nextBoxes[box]) {
+            regionOfBox[box] = -1;
+        }
+        positionKey -= mix(slotHashes[slot] + GOLDEN_GAMMA);
+        final int index = regionIndexes[slot], last = regionSlots[--regionCount];
+        regionSlots[index] = last;
+        regionIndexes[last] = index;
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    /**
+     * Walks the open boxes joined to the given one by free lines, making them a new region.
+     */
+    private void addRegionFrom(int start) {
+        final int slot = freeSlots[--freeSlotCount];
+        int size = 0, walked = 0;
+        visitStamps[start] = stamp;
+        regionBoxesBuffer[size++] = start;
+        // the buffer of the boxes of the region doubles as the queue of the walk
+        while (walked < size) {
+            final int box = regionBoxesBuffer[walked++];
+            board.boxSideLines(box, boxSideLinesBuffer);
+            for (int side : boxSideLinesBuffer) {
+                if (!board.isLinePlaced(side) && board.adjacentBoxes(side, adjacentBoxesBuffer) == 2) {
+                    final int next = adjacentBoxesBuffer[0] == box ? adjacentBoxesBuffer[1] : adjacentBoxesBuffer[0];
+                    if (visitStamps[next] != stamp) {
+                        visitStamps[next] = stamp;
+                        regionBoxesBuffer[size++] = next;
+                    }
+                }
+            }
+        }
+        firstBoxes[slot] = -1;
+        for (int i = size - 1; i >= 0; i--) {
+            final int box = regionBoxesBuffer[i];
+            regionOfBox[box] = slot;
+            nextBoxes[box] = firstBoxes[slot];
+            firstBoxes[slot] = box;
+        }
+        slotHashes[slot] = canonicalHashOf(size);
+        positionKey += mix(slotHashes[slot] + GOLDEN_GAMMA);
+        regionIndexes[slot] = regionCount;
+        regionSlots[regionCount++] = slot;
+    }
+
+    private void nextStamp() {
+        if (++stamp == 0) {
+            Arrays.fill(visitStamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Encodes every box of the region held by the buffer as its coordinates and free sides, under each of the eight
+     * reflections and rotations of the plane, and hashes the smallest sorted encoding.
+     */
+    private long canonicalHashOf(int count) {
+        boolean hasCanonical = false;
+        for (int symmetry = 0; symmetry < 8; symmetry++) {
+            final boolean transposes = (symmetry & 4) != 0, mirrorsX = (symmetry & 1) != 0, mirrorsY = (symmetry & 2) != 0;
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                final int box = regionBoxesBuffer[i];
+                int x = box % boxRowLength, y = box / boxRowLength;
+                if (transposes) {
+                    final int swap = x;
+                    x = y;
+                    y = swap;
+                }
+                x = mirrorsX ? -x : x;
+                y = mirrorsY ? -y : y;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+            }
+            for (int i = 0; i < count; i++) {
+                final int box = regionBoxesBuffer[i];
+                int x = box % boxRowLength, y = box / boxRowLength, sides = freeSidesOf(box);
+                if (transposes) {
+                    final int swap = x;
+                    x = y;
+                    y = swap;
+                    sides = swapBits(swapBits(sides, TOP, LEFT), BOTTOM, RIGHT);
+                }
+                if (mirrorsX) {
+                    x = -x;
+                    sides = swapBits(sides, LEFT, RIGHT);
+                }
+                if (mirrorsY) {
+                    y = -y;
+                    sides = swapBits(sides, TOP, BOTTOM);
+                }
+                codesBuffer[i] = (long) (y - minY) << 36 | (long) (x - minX) << 4 | sides;
+            }
+            Arrays.sort(codesBuffer, 0, count);
+            if (!hasCanonical || Arrays.compare(codesBuffer, 0, count, canonicalCodesBuffer, 0, count) < 0) {
+                System.arraycopy(codesBuffer, 0, canonicalCodesBuffer, 0, count);
+                hasCanonical = true;
+            }
+        }
+        long hash = count * GOLDEN_GAMMA;
+        for (int i = 0; i < count; i++) {
+            hash = mix(hash + canonicalCodesBuffer[i] + GOLDEN_GAMMA);
+        }
+        return hash;
+    }
+
+    private int freeSidesOf(int box) {
+        board.boxSideLines(box, boxSideLinesBuffer);
+        int sides = 0;
+        for (int i = 0; i < 4; i++) {
+            if (!board.isLinePlaced(boxSideLinesBuffer[i])) {
+                sides |= 1 << i;
+            }
+        }
+        return sides;
+    }
+
+    private static int swapBits(int bits, int first, int second) {
+        final boolean hasFirst = (bits & first) != 0, hasSecond = (bits & second) != 0;
+        bits &= ~(first | second);
+        return bits | (hasFirst ? second : 0) | (hasSecond ? first : 0);
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,198 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Class that solves positions exactly by searching the multiset of their independent regions.
+ * <p>
+ * The position is {@link RegionDecomposition decomposed} once and the decomposition is updated after every line, and
+ * the value of a position, or a bound of it, is looked up in a {@link RegionValueCache} under its region key, so
+ * positions made of the same regions are solved once, wherever the regions lie. As players alternate after every line,
+ * the value of a position is not the sum of the values of its regions, which would be exact only if every player could
+ * pass: the search still interleaves the moves of all the regions, but only tries the lines of one region among those
+ * of the same shape. It prunes with alpha-beta, trying the lines completing a box first, then the safe ones.
+ */
+public class RegionSolver {
+
+    // how many positions are visited between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 1 << 8;
+    private final RegionValueCache cache;
+    private Board board;
+    private RegionDecomposition decomposition;
+    // the lines tried at each ply
+    private int[][] moves;
+    private final int[] adjacentBoxesBuffer = new int[2];
+    private long nodes;
+    private long deadline;
+    private CancelToken cancelToken;
+    private boolean isAborted;
+
+    /**
+     * @param cache the cache of the values of the solved positions, which can be shared.
+     */
+    public RegionSolver(RegionValueCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Solves the position, caching the value, or a bound of it, of every position visited.
+     *
+     * @param position the position to solve, which is copied and never modified.
+     * @param deadlineNanos the deadline, compared with {@link System#nanoTime()}.
+     * @param cancelToken the token through which the search can be cancelled from another thread.
+     * @return the best move and the exact number of boxes the player to move completes more than the opponent, with
+     * the positions visited as nodes, or null if the position has not been solved before the deadline or the
+     * cancellation.
+     * @throws UnsupportedOperationException if the board is huge.
+     */
+    public SearchResult solve(Board position, long deadlineNanos, CancelToken cancelToken) {
+        if (position.isHuge()) {
+            throw new UnsupportedOperationException("Huge boards cannot be searched.");
+        }
+        final long start = System.nanoTime();
+        if (position.freeLineCount() == 0) {
+            return new SearchResult(-1, 0, 0, 0, 0, new int[0]);
+        }
+        board = position.copy();
+        decomposition = new RegionDecomposition(board);
+        moves = new int[board.freeLineCount()][];
+        for (int ply = 0; ply < moves.length; ply++) {
+            moves[ply] = new int[moves.length - ply];
+        }
+        deadline = deadlineNanos;
+        this.cancelToken = cancelToken;
+        isAborted = false;
+        nodes = 0;
+        decomposition.decompose();
+        final long key = decomposition.positionKey();
+        final int infinity = board.boxCount() - board.boxCountWithSides(4) + 1;
+        final int moveCount = collectMoves(0);
+        int bestMove = -1, bestScore = -infinity;
+        for (int i = 0; i < moveCount; i++) {
+            final int move = moves[0][i];
+            final int completedBoxes = boxesCompletedBy(move);
+            play(move);
+            final int score = completedBoxes - value(completedBoxes - infinity, completedBoxes - bestScore, 1);
+            takeBack(move);
+            if (isAborted) {
+                return null;
+            }
+            if (bestMove == -1 || score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+            }
+        }
+        cache.put(key, bestScore);
+        return new SearchResult(bestMove, bestScore, moves.length, nodes, System.nanoTime() - start,
+                new int[]{bestMove});
+    }
+
+    /**
+     * @return the number of boxes the player to move in the current position completes more than the opponent, if it
+     * lies within the window, otherwise a bound of it beyond the window.
+     */
+    private int value(int alpha, int beta, int ply) {
+        if ((++nodes & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                && (cancelToken.isCancelled() || System.nanoTime() - deadline >= 0)) {
+            isAborted = true;
+        }
+        if (isAborted || board.freeLineCount() == 0) {
+            return 0;
+        }
+        final long key = decomposition.positionKey();
+        final long data = cache.probe(key);
+        if (data != RegionValueCache.MISS) {
+            final int cached = RegionValueCache.value(data);
+            switch (RegionValueCache.bound(data)) {
+                case TranspositionTable.EXACT -> {
+                    return cached;
+                }
+                case TranspositionTable.LOWER_BOUND -> alpha = Math.max(alpha, cached);
+                case TranspositionTable.UPPER_BOUND -> beta = Math.min(beta, cached);
+            }
+            if (alpha >= beta) {
+                return cached;
+            }
+        }
+        final int originalAlpha = alpha;
+        final int moveCount = collectMoves(ply);
+        int best = Integer.MIN_VALUE;
+        for (int i = 0; i < moveCount; i++) {
+            final int move = moves[ply][i];
+            final int completedBoxes = boxesCompletedBy(move);
+            play(move);
+            final int score = completedBoxes - value(completedBoxes - beta, completedBoxes - alpha, ply + 1);
+            takeBack(move);
+            if (isAborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        cache.store(key, best, best <= originalAlpha ? TranspositionTable.UPPER_BOUND
+                : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT);
+        return best;
+    }
+
+    private void play(int move) {
+        board.placeLine(move, Color.RED);
+        decomposition.linePlaced(move);
+    }
+
+    private void takeBack(int move) {
+        board.removeLastLine();
+        decomposition.lineRemoved(move);
+    }
+
+    /**
+     * Writes the free lines of the regions of the current position into the moves of the ply, skipping the regions
+     * with the same shape as a previous one, and orders them: the lines completing a box first, then the safe ones.
+     *
+     * @return the number of moves.
+     */
+    private int collectMoves(int ply) {
+        final int regionCount = decomposition.regionCount();
+        final int[] ordered = moves[ply];
+        int count = 0;
+        regions:
+        for (int region = 0; region < regionCount; region++) {
+            for (int previous = 0; previous < region; previous++) {
+                if (decomposition.regionHash(previous) == decomposition.regionHash(region)) {
+                    continue regions;
+                }
+            }
+            count += decomposition.regionLines(region, ordered, count);
+        }
+        // partitions the lines in place: those completing a box, the safe ones and the others
+        int capturing = 0, safe = 0;
+        for (int i = 0; i < count; i++) {
+            final int line = ordered[i];
+            if (boxesCompletedBy(line) > 0) {
+                ordered[i] = ordered[safe];
+                ordered[safe] = ordered[capturing];
+                ordered[capturing++] = line;
+                safe++;
+            } else if (board.isSafeLine(line)) {
+                ordered[i] = ordered[safe];
+                ordered[safe++] = line;
+            }
+        }
+        return count;
+    }
+
+    private int boxesCompletedBy(int line) {
+        int completedBoxes = 0;
+        final int adjacentBoxCount = board.adjacentBoxes(line, adjacentBoxesBuffer);
+        for (int i = 0; i < adjacentBoxCount; i++) {
+            if (board.boxSideCount(adjacentBoxesBuffer[i]) == 3) {
+                completedBoxes++;
+            }
+        }
+        return completedBoxes;
+    }
+}
@@ -0,0 +1,105 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class modeling a cache of the values of solved positions, keyed by their {@link RegionDecomposition#positionKey()
+ * region key}. Since the key does not depend on where the regions lie, the cache can be shared across positions and
+ * boards of any size. When it is full, the least recently used value is evicted. It can be shared between threads.
+ * <p>
+ * Values found by searches with a window may only be bounds, which are cached along with their
+ * {@link TranspositionTable#EXACT bound type}, packed into a single int.
+ */
+public class RegionValueCache {
+
+    /** The result of a probe that has found no value. */
+    public static final long MISS = Long.MIN_VALUE;
+    private static final int BOUND_BITS = 2;
+
+    private final Map<Long, Integer> values;
+
+    /**
+     * @param maxSize the number of values held before the least recently used ones are evicted.
+     */
+    public RegionValueCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one value");
+        }
+        values = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param key the region key of a position.
+     * @return the number of boxes the player to move completes more than the opponent, or null if it is not cached
+     * or only a bound of it is.
+     */
+    public synchronized Integer get(long key) {
+        final Integer entry = values.get(key);
+        return entry == null || (entry & (1 << BOUND_BITS) - 1) != TranspositionTable.EXACT ? null : entry >> BOUND_BITS;
+    }
+
+    /**
+     * @param key the region key of a position.
+     * @param value the number of boxes the player to move completes more than the opponent.
+     */
+    public void put(long key, int value) {
+        store(key, value, TranspositionTable.EXACT);
+    }
+
+    /**
+     * Caches a value or a bound of it, unless the exact value is cached already.
+     *
+     * @param key the region key of a position.
+     * @param value the number of boxes the player to move completes more than the opponent, or a bound of it.
+     * @param bound {@link TranspositionTable#EXACT}, {@link TranspositionTable#LOWER_BOUND} or
+     * {@link TranspositionTable#UPPER_BOUND}.
+     */
+    public synchronized void store(long key, int value, int bound) {
+        if (bound != TranspositionTable.EXACT) {
+            final Integer entry = values.get(key);
+            if (entry != null && (entry & (1 << BOUND_BITS) - 1) == TranspositionTable.EXACT) {
+                return;
+            }
+        }
+        values.put(key, value << BOUND_BITS | bound);
+    }
+
+    /**
+     * @param key the region key of a position.
+     * @return the value or bound cached with its type, to be read with {@link #value(long)} and {@link #bound(long)},
+     * or {@link #MISS} if nothing is cached.
+     */
+    public synchronized long probe(long key) {
+        final Integer entry = values.get(key);
+        return entry == null ? MISS : entry;
+    }
+
+    /**
+     * @param data the result of a successful probe.
+     * @return the value or bound.
+     */
+    public static int value(long data) {
+        return (int) data >> BOUND_BITS;
+    }
+
+    /**
+     * @param data the result of a successful probe.
+     * @return the type of the bound.
+     */
+    public static int bound(long data) {
+        return (int) data & (1 << BOUND_BITS) - 1;
+    }
+
+    /**
+     * @return the number of values held.
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+}
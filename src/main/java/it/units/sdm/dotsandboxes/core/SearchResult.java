@@ -0,0 +1,29 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Record that models the outcome of a search for the best move.
+ *
+ * @param move the id of the best line found, or -1 if the board is full.
+ * @param score the number of boxes the player to move is expected to complete more than the opponent from now on.
+ * @param depth the depth of the last iteration that completed before the deadline.
+ * @param nodes the number of positions visited.
+ * @param elapsedNanos the time spent searching, in nanoseconds.
+ * @param principalVariation the ids of the lines expected to be played next, starting with the best move.
+ */
+public record SearchResult(int move, int score, int depth, long nodes, long elapsedNanos, int[] principalVariation) {
+
+    /**
+     * @return the ids of the lines expected to be played next, starting with the best move.
+     */
+    @Override
+    public int[] principalVariation() {
+        return principalVariation.clone();
+    }
+
+    /**
+     * @return the number of positions visited per second.
+     */
+    public long nodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : (long) (nodes * 1e9 / elapsedNanos);
+    }
+}
@@ -0,0 +1,78 @@
+package it.units.sdm.dotsandboxes.core;
+
+/**
+ * Enum class modeling the symmetries of a board. The first four apply to every board,
+ * while the remaining ones swap rows and columns and therefore only apply to square boards.
+ */
+public enum Symmetry {
+    IDENTITY,
+    HORIZONTAL_REFLECTION,
+    VERTICAL_REFLECTION,
+    ROTATION_180,
+    TRANSPOSITION,
+    ROTATION_90,
+    ROTATION_270,
+    ANTI_TRANSPOSITION;
+
+    private static final Symmetry[] VALUES = values();
+
+    /**
+     * @param width the width of the board.
+     * @param height the height of the board.
+     * @return the number of symmetries of a board of the given size, which are the first ones of the enum.
+     */
+    public static int countFor(int width, int height) {
+        return width == height ? 8 : 4;
+    }
+
+    /**
+     * @param ordinal the ordinal of a symmetry.
+     * @return the symmetry with the given ordinal.
+     */
+    public static Symmetry of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @param x the x coordinate of a point.
+     * @param y the y coordinate of the point.
+     * @param width the width of the board.
+     * @param height the height of the board.
+     * @return the x coordinate of the point once the symmetry is applied.
+     */
+    public int transformX(int x, int y, int width, int height) {
+        return switch (this) {
+            case IDENTITY, VERTICAL_REFLECTION -> x;
+            case HORIZONTAL_REFLECTION, ROTATION_180 -> width - 1 - x;
+            case TRANSPOSITION, ROTATION_270 -> y;
+            case ROTATION_90, ANTI_TRANSPOSITION -> height - 1 - y;
+        };
+    }
+
+    /**
+     * @param x the x coordinate of a point.
+     * @param y the y coordinate of the point.
+     * @param width the width of the board.
+     * @param height the height of the board.
+     * @return the y coordinate of the point once the symmetry is applied.
+     */
+    public int transformY(int x, int y, int width, int height) {
+        return switch (this) {
+            case IDENTITY, HORIZONTAL_REFLECTION -> y;
+            case VERTICAL_REFLECTION, ROTATION_180 -> height - 1 - y;
+            case TRANSPOSITION, ROTATION_90 -> x;
+            case ROTATION_270, ANTI_TRANSPOSITION -> width - 1 - x;
+        };
+    }
+
+    /**
+     * @return the symmetry that undoes this one.
+     */
+    public Symmetry inverse() {
+        return switch (this) {
+            case ROTATION_90 -> ROTATION_270;
+            case ROTATION_270 -> ROTATION_90;
+            default -> this;
+        };
+    }
+}
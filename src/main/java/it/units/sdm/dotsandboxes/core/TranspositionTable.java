@@ -0,0 +1,198 @@
+package it.units.sdm.dotsandboxes.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class modeling a fixed-size table of searched positions, keyed by their 64-bit hash.
+ * <p>
+ * The table is a single array of longs split into buckets of two entries: the first keeps the entry searched
+ * the deepest, unless it comes from a previous search, while the second is always replaced.
+ * Every entry is made of its data and of the key xored with the data: entries torn by concurrent writes
+ * do not match their key anymore and are treated as misses, so the table can be shared without locks.
+ * Its memory is allocated once and never grows.
+ */
+public class TranspositionTable {
+
+    /** The stored score is exact. */
+    public static final int EXACT = 0;
+    /** The stored score is a lower bound, as the search failed high. */
+    public static final int LOWER_BOUND = 1;
+    /** The stored score is an upper bound, as the search failed low. */
+    public static final int UPPER_BOUND = 2;
+    /** The value returned by {@link #probe(long)} when the position is not in the table. */
+    public static final long MISS = 0;
+    private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(long[].class);
+    // longs per bucket: the key and the data of each of the two entries
+    private static final int BUCKET_SIZE = 4;
+    private static final int MOVE_BITS = 23, SCORE_BITS = 24, DEPTH_BITS = 12, BOUND_BITS = 2, GENERATION_BITS = 2;
+    private static final int SCORE_SHIFT = MOVE_BITS, DEPTH_SHIFT = SCORE_SHIFT + SCORE_BITS,
+            BOUND_SHIFT = DEPTH_SHIFT + DEPTH_BITS, GENERATION_SHIFT = BOUND_SHIFT + BOUND_BITS;
+    private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+    private final long[] entries;
+    private final int bucketMask;
+    private int generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+
+    /**
+     * @param megabytes the memory the table can use, rounded down to a power of two buckets.
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Transposition table size must be at least 1 MB");
+        }
+        final long buckets = Long.highestOneBit(((long) megabytes << 20) / (BUCKET_SIZE * Long.BYTES));
+        if (buckets * BUCKET_SIZE > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Transposition table is too large");
+        }
+        entries = new long[(int) buckets * BUCKET_SIZE];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /**
+     * Looks a position up.
+     *
+     * @param key the hash of the position.
+     * @return the data stored for the position, to be decoded with the static accessors of this class,
+     * or {@link #MISS} if the position is not in the table.
+     */
+    public long probe(long key) {
+        final int bucket = bucketOf(key);
+        boolean isBucketUsed = false;
+        for (int entry = bucket; entry < bucket + BUCKET_SIZE; entry += 2) {
+            final long data = (long) ENTRIES.getOpaque(entries, entry + 1);
+            if (data != MISS && ((long) ENTRIES.getOpaque(entries, entry) ^ data) == key) {
+                hits.increment();
+                return data;
+            }
+            isBucketUsed |= data != MISS;
+        }
+        misses.increment();
+        if (isBucketUsed) {
+            collisions.increment();
+        }
+        return MISS;
+    }
+
+    /**
+     * Stores the outcome of the search of a position, in the depth-preferred entry of its bucket if it has been
+     * searched at least as deep as the position held there, and in the always-replace entry otherwise.
+     *
+     * @param key the hash of the position.
+     * @param move the id of the best line found, or -1 if none.
+     * @param score the score of the position.
+     * @param depth the depth the position has been searched to.
+     * @param bound whether the score is {@link #EXACT}, a {@link #LOWER_BOUND} or an {@link #UPPER_BOUND}.
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        final long data = ((long) (move + 1) & mask(MOVE_BITS))
+                | ((long) score & mask(SCORE_BITS)) << SCORE_SHIFT
+                | (long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT
+                | (long) bound << BOUND_SHIFT
+                | (long) generation << GENERATION_SHIFT
+                // keeps the stored data different from MISS
+                | 1L << 63;
+        final int bucket = bucketOf(key);
+        final long preferredData = (long) ENTRIES.getOpaque(entries, bucket + 1);
+        final boolean isPreferredReplaced = preferredData == MISS
+                || ((long) ENTRIES.getOpaque(entries, bucket) ^ preferredData) == key
+                || generation(preferredData) != generation
+                || depth >= depth(preferredData);
+        final int entry = isPreferredReplaced ? bucket : bucket + 2;
+        ENTRIES.setOpaque(entries, entry, key ^ data);
+        ENTRIES.setOpaque(entries, entry + 1, data);
+    }
+
+    /**
+     * Starts a new search: the entries stored by the previous ones can be replaced regardless of their depth.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & (int) mask(GENERATION_BITS);
+    }
+
+    /**
+     * Empties the table and resets its counters.
+     */
+    public void clear() {
+        Arrays.fill(entries, 0);
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+    }
+
+    /**
+     * @return the number of positions the table can hold.
+     */
+    public int capacity() {
+        return entries.length / 2;
+    }
+
+    /**
+     * @return the number of probes that found their position.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of probes that did not find their position.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of missed probes whose bucket held other positions.
+     */
+    public long collisions() {
+        return collisions.sum();
+    }
+
+    /**
+     * @param data the data returned by a successful probe.
+     * @return the id of the best line stored, or -1 if none.
+     */
+    public static int move(long data) {
+        return (int) (data & mask(MOVE_BITS)) - 1;
+    }
+
+    /**
+     * @param data the data returned by a successful probe.
+     * @return the stored score.
+     */
+    public static int score(long data) {
+        return (int) (data << (Long.SIZE - SCORE_SHIFT - SCORE_BITS) >> (Long.SIZE - SCORE_BITS));
+    }
+
+    /**
+     * @param data the data returned by a successful probe.
+     * @return the depth the position has been searched to.
+     */
+    public static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT & MAX_DEPTH);
+    }
+
+    /**
+     * @param data the data returned by a successful probe.
+     * @return whether the stored score is {@link #EXACT}, a {@link #LOWER_BOUND} or an {@link #UPPER_BOUND}.
+     */
+    public static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT & mask(BOUND_BITS));
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT & mask(GENERATION_BITS));
+    }
+
+    private int bucketOf(long key) {
+        return ((int) (key >>> 32) & bucketMask) * BUCKET_SIZE;
+    }
+
+    private static long mask(int bits) {
+        return (1L << bits) - 1;
+    }
+}
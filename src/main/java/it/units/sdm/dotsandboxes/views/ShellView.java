@@ -2,7 +2,6 @@ package it.units.sdm.dotsandboxes.views;
 
 import it.units.sdm.dotsandboxes.core.*;
 import it.units.sdm.dotsandboxes.core.Color;
-import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 import org.fusesource.jansi.Ansi;
 import org.fusesource.jansi.AnsiConsole;
 
@@ -44,9 +43,10 @@ public class ShellView extends TextView {
                 break;
             }
             eraseScreen();
-            printPlayers(gameStateReference.players(), gameStateReference.scoreBoard(), gameStateReference.playerColorLUT());
-            printBoard(gameStateReference.board());
-            printCurrentPlayer(gameStateReference.getCurrentPlayer(), gameStateReference.playerColorLUT().get(gameStateReference.getCurrentPlayer()));
+            GameState state = gameStateReference.state();
+            printPlayers(state.players(), state.scoreBoard(), gameStateReference.playerColorLUT());
+            printBoard(state.board());
+            printCurrentPlayer(state.currentPlayer(), gameStateReference.playerColorLUT().get(state.currentPlayer()));
             signalUIHasRefreshed();
             controllerReference.writeInput(promptForAction());
             controllerReference.resumeAfterInputReception();
@@ -56,15 +56,9 @@ public class ShellView extends TextView {
 
     @Override
     protected void printVerticalLineIfPresent(int j, int i, StringBuilder sb, Board gameBoard) {
-        Line searched;
-        try {
-            searched = new Line(j, i, j, i + 1);
-        } catch (InvalidInputException e) {
-            throw new RuntimeException(e);
-        }
-        Optional<ColoredLine> res = gameBoard.lines().stream().filter(coloredLine -> coloredLine.hasSameEndpointsAs(searched)).findFirst();
-        if (res.isPresent()) {
-            sb.append(res.get().color().format().format(" ‖ "));
+        Color color = gameBoard.lineColor(gameBoard.lineId(j, i, j, i + 1));
+        if (color != null) {
+            sb.append(color.format().format(" ‖ "));
         } else {
             sb.append("   ");
         }
@@ -76,15 +70,9 @@ public class ShellView extends TextView {
 
     @Override
     protected void printHorizontalLineIfPresent(int j, int i, StringBuilder sb, Board gameBoard) {
-        Line searched;
-        try {
-            searched = new Line(j, i, j + 1, i);
-        } catch (InvalidInputException e) {
-            throw new RuntimeException(e);
-        }
-        Optional<ColoredLine> res = gameBoard.lines().stream().filter(coloredLine -> coloredLine.hasSameEndpointsAs(searched)).findFirst();
-        if (res.isPresent()) {
-            sb.append(res.get().color().format().format("="));
+        Color color = gameBoard.lineColor(gameBoard.lineId(j, i, j + 1, i));
+        if (color != null) {
+            sb.append(color.format().format("="));
         } else {
             sb.append(" ");
         }
@@ -1,11 +1,10 @@
 package it.units.sdm.dotsandboxes.views;
 
 import it.units.sdm.dotsandboxes.controllers.IGameController;
-import it.units.sdm.dotsandboxes.core.ColoredLine;
+import it.units.sdm.dotsandboxes.core.Board;
 import it.units.sdm.dotsandboxes.core.Game;
-import it.units.sdm.dotsandboxes.core.Line;
+import it.units.sdm.dotsandboxes.core.GameState;
 import it.units.sdm.dotsandboxes.core.Point;
-import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 
 import javax.swing.*;
 import java.awt.*;
@@ -45,7 +44,7 @@ public class SwingView extends IGameView implements Runnable {
     protected boolean finishConfigure() {
         try {
             boardPanel = new BoardPanel(gameStateReference, controllerReference);
-            scorePanel = new ScorePanel(gameStateReference);
+            scorePanel = new ScorePanel(gameStateReference, controllerReference);
 
             mainPanel.add(boardPanel, BorderLayout.CENTER);
             mainPanel.add(scorePanel, BorderLayout.EAST);
@@ -182,10 +181,8 @@ public class SwingView extends IGameView implements Runnable {
     }
 
     private void refreshBoardComponents() {
-        synchronized (gameStateReference.board()) {
-            boardPanel.repaint();
-            scorePanel.updateScoreAndTurn();
-        }
+        boardPanel.repaint();
+        scorePanel.updateScoreAndTurn();
         signalUIHasRefreshed();
     }
 
@@ -272,49 +269,33 @@ public class SwingView extends IGameView implements Runnable {
             Graphics2D g2 = (Graphics2D) g;
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-            int width = gameStateReference.board().width();
-            int height = gameStateReference.board().height();
+            // the snapshot is immutable, so the whole frame is drawn from a consistent state without holding any lock
+            Board board = gameStateReference.boardSnapshot();
 
-            int cellWidth = calculateCellDimension(getWidth(), width);
-            int cellHeight = calculateCellDimension(getHeight(), height);
+            int cellWidth = calculateCellDimension(getWidth(), board.width());
+            int cellHeight = calculateCellDimension(getHeight(), board.height());
 
-            synchronized (gameStateReference.board().lines()) {
-                drawLines(g2, cellWidth, cellHeight, true);
-                drawLines(g2, cellWidth, cellHeight, false);
-            }
+            drawLines(g2, board, cellWidth, cellHeight, true);
+            drawLines(g2, board, cellWidth, cellHeight, false);
         }
 
-        private void drawLines(Graphics2D g2, int cellWidth, int cellHeight, boolean isHorizontal) {
-            int width = gameStateReference.board().width();
-            int height = gameStateReference.board().height();
-
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    drawLineIfPresent(g2, x, y, cellWidth, cellHeight, isHorizontal);
+        private void drawLines(Graphics2D g2, Board board, int cellWidth, int cellHeight, boolean isHorizontal) {
+            for (int y = 0; y < board.height(); y++) {
+                for (int x = 0; x < board.width(); x++) {
+                    drawLineIfPresent(g2, board, x, y, cellWidth, cellHeight, isHorizontal);
                 }
             }
         }
 
-        private void drawLineIfPresent(Graphics2D g2, int x, int y, int cellWidth, int cellHeight, boolean isHorizontal) {
-            Line line = createLine(x, y, isHorizontal);
-
-            Optional<ColoredLine> lineOpt = gameStateReference.board().lines().stream()
-                    .filter(coloredLine -> coloredLine.hasSameEndpointsAs(line))
-                    .findFirst();
-
-            lineOpt.ifPresent(coloredLine -> drawLine(g2, coloredLine, x, y, cellWidth, cellHeight, isHorizontal));
-        }
-
-        private Line createLine(int x, int y, boolean isHorizontal) {
-            try {
-                return isHorizontal ? new Line(x, y, x + 1, y) : new Line(x, y, x, y + 1);
-            } catch (InvalidInputException e) {
-                throw new RuntimeException("Invalid line coordinates", e);
+        private void drawLineIfPresent(Graphics2D g2, Board board, int x, int y, int cellWidth, int cellHeight, boolean isHorizontal) {
+            int lineId = isHorizontal ? board.lineId(x, y, x + 1, y) : board.lineId(x, y, x, y + 1);
+            if (lineId >= 0 && board.isLinePlaced(lineId)) {
+                drawLine(g2, board.lineColor(lineId).toAwtColor(), x, y, cellWidth, cellHeight, isHorizontal);
             }
         }
 
-        private void drawLine(Graphics2D g2, ColoredLine coloredLine, int x, int y, int cellWidth, int cellHeight, boolean isHorizontal) {
-            g2.setColor(coloredLine.color().toAwtColor());
+        private void drawLine(Graphics2D g2, Color lineColor, int x, int y, int cellWidth, int cellHeight, boolean isHorizontal) {
+            g2.setColor(lineColor);
             int dotX = PADDING + x * cellWidth;
             int dotY = PADDING + y * cellHeight;
 
@@ -376,34 +357,49 @@ public class SwingView extends IGameView implements Runnable {
         private final JLabel scoreLabels;
         private final JLabel turnLabel;
         private final Game gameStateReference;
+        private final IGameController controllerReference;
 
-        public ScorePanel(Game gameStateReference) {
+        public ScorePanel(Game gameStateReference, IGameController controllerReference) {
             setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
             scoreLabels = new JLabel();
             turnLabel = new JLabel("Turn: Player 1");
             add(scoreLabels);
             add(turnLabel);
+            add(createHistoryButton("Undo", "undo"));
+            add(createHistoryButton("Redo", "redo"));
             this.gameStateReference = gameStateReference;
+            this.controllerReference = controllerReference;
+        }
+
+        private JButton createHistoryButton(String text, String command) {
+            JButton button = new JButton(text);
+            button.addActionListener(e -> {
+                controllerReference.writeInput(command);
+                controllerReference.resumeAfterInputReception();
+            });
+            return button;
         }
 
         public void updateScoreAndTurn() {
-            updateScore();
-            updateTurn();
+            // scores and turn are read together so that they always belong to the same move
+            GameState state = gameStateReference.state();
+            updateScore(state);
+            updateTurn(state);
         }
 
-        private void updateScore() {
+        private void updateScore(GameState state) {
             StringBuilder scores = new StringBuilder("<html>");
-            for (int i = 1; i <= gameStateReference.players().size(); i++) {
-                String player = gameStateReference.players().get(i - 1);
-                String score = String.valueOf(gameStateReference.scoreBoard().get(player));
+            for (int i = 1; i <= state.players().size(); i++) {
+                String player = state.players().get(i - 1);
+                String score = String.valueOf(state.score(i - 1));
                 scores.append(player).append(": ").append(score).append("<br>");
             }
             scores.append("</html>");
             scoreLabels.setText(scores.toString());
         }
 
-        private void updateTurn() {
-            String currentPlayer = gameStateReference.getCurrentPlayer();
+        private void updateTurn(GameState state) {
+            String currentPlayer = state.currentPlayer();
             turnLabel.setText("Current player: " + currentPlayer);
             Color playerColor = gameStateReference.playerColorLUT().get(currentPlayer).toAwtColor();
             turnLabel.setForeground(playerColor);
@@ -1,7 +1,6 @@
 package it.units.sdm.dotsandboxes.views;
 
 import it.units.sdm.dotsandboxes.core.*;
-import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 
 
 import java.io.BufferedReader;
@@ -45,9 +44,10 @@ public class TextView extends IGameView {
                 break;
             }
             eraseScreen();
-            printPlayers(gameStateReference.players(), gameStateReference.scoreBoard());
-            printBoard(gameStateReference.board());
-            printCurrentPlayer(gameStateReference.getCurrentPlayer());
+            GameState state = gameStateReference.state();
+            printPlayers(state.players(), state.scoreBoard());
+            printBoard(state.board());
+            printCurrentPlayer(state.currentPlayer());
             signalUIHasRefreshed();
             controllerReference.writeInput(promptForAction());
             controllerReference.resumeAfterInputReception();
@@ -132,19 +132,10 @@ public class TextView extends IGameView {
     }
 
     protected void printVerticalLineIfPresent(int j, int i, StringBuilder sb, Board gameBoard) {
-        Line searched;
-        try {
-            searched = new Line(j, i, j, i + 1);
-        } catch (InvalidInputException e) {
-            throw new RuntimeException(e);
-        }
-        synchronized (gameBoard.lines()) {
-            Optional<ColoredLine> res = gameBoard.lines().stream().filter(coloredLine -> coloredLine.hasSameEndpointsAs(searched)).findFirst();
-            if (res.isPresent()) {
-                sb.append(" ‖ ");
-            } else {
-                sb.append("   ");
-            }
+        if (gameBoard.isLinePlaced(gameBoard.lineId(j, i, j, i + 1))) {
+            sb.append(" ‖ ");
+        } else {
+            sb.append("   ");
         }
         if (j < gameBoard.width() - 1) {
             sb.append(" ");
@@ -152,19 +143,10 @@ public class TextView extends IGameView {
     }
 
     protected void printHorizontalLineIfPresent(int j, int i, StringBuilder sb, Board gameBoard) {
-        Line searched;
-        try {
-            searched = new Line(j, i, j + 1, i);
-        } catch (InvalidInputException e) {
-            throw new RuntimeException(e);
-        }
-        synchronized (gameBoard.lines()) {
-            Optional<ColoredLine> res = gameBoard.lines().stream().filter(coloredLine -> coloredLine.hasSameEndpointsAs(searched)).findFirst();
-            if (res.isPresent()) {
-                sb.append("=");
-            } else {
-                sb.append(" ");
-            }
+        if (gameBoard.isLinePlaced(gameBoard.lineId(j, i, j + 1, i))) {
+            sb.append("=");
+        } else {
+            sb.append(" ");
         }
 
     }
@@ -175,12 +157,10 @@ public class TextView extends IGameView {
      */
     protected void printPlayers(List<String> players, Map<String, Integer> scores) {
         out.println("--- PLAYERS ---");
-        synchronized (gameStateReference.scoreBoard()) {
-            for (int i = 1; i <= players.size(); i++) {
-                String player = players.get(i - 1);
-                out.println("Player " + i + " : " + player);
-                out.println("\tScore: " + scores.get(player));
-            }
+        for (int i = 1; i <= players.size(); i++) {
+            String player = players.get(i - 1);
+            out.println("Player " + i + " : " + player);
+            out.println("\tScore: " + scores.get(player));
         }
         out.println("---------------");
     }
@@ -298,7 +278,7 @@ public class TextView extends IGameView {
      * @return the action of the user.
      */
     public String promptForAction() {
-        displayPrompt("Insert \"quit\" to quit the game\n");
+        displayPrompt("Insert \"quit\" to quit the game, \"undo\" or \"redo\" to take back or replay a move\n");
         displayPrompt("Or make your move [ x1 y1 x2 y2 ] : ");
         try {
             return in.readLine();
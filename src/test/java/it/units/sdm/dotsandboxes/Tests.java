@@ -4,7 +4,15 @@ import it.units.sdm.dotsandboxes.core.*;
 import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -76,11 +84,9 @@ public class Tests {
         testGame.makeNextMove(new Line(0, 1, 1, 1));
         testGame.makeNextMove(new Line(0, 0, 0, 1));
         testGame.makeNextMove(new Line(1, 0, 1, 1));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(0, 1, 0, 2));
         testGame.makeNextMove(new Line(0, 2, 1, 2));
         testGame.makeNextMove(new Line(1, 1, 1, 2));
-        testGame.updateScore();
         assertEquals(1, testGame.getPlayerScore("A"));
         assertEquals(1, testGame.getPlayerScore("B"));
     }
@@ -137,7 +143,7 @@ public class Tests {
         testGame.makeNextMove(new Line(0, 0, 1, 0));
         testGame.makeNextMove(new Line(0, 1, 1, 1));
         testGame.makeNextMove(new Line(0, 0, 0, 1));
-        testGame.makeNextMove(new Line(1, 0, 1, 1));
+        testGame.makeNextMove(new Line(2, 0, 3, 0));
         testGame.makeNextMove(new Line(0, 1, 0, 2));
         testGame.makeNextMove(new Line(0, 2, 1, 2));
         testGame.makeNextMove(new Line(1, 1, 1, 2));
@@ -156,7 +162,7 @@ public class Tests {
         testGame.makeNextMove(new Line(2, 1, 1, 1));
         testGame.makeNextMove(new Line(2, 1, 2, 0));
         testGame.makeNextMove(new Line(2, 0, 1, 0));
-        testGame.makeNextMove(new Line(2, 0, 3, 0));
+        testGame.makeNextMove(new Line(1, 0, 1, 1));
         testGame.makeNextMove(new Line(3, 0, 3, 1));
         testGame.makeNextMove(new Line(3, 1, 2, 1));
         testGame.makeNextMove(new Line(3, 1, 3, 2));
@@ -184,65 +190,714 @@ public class Tests {
         testGame.makeNextMove(new Line(0, 1, 1, 1));
         testGame.makeNextMove(new Line(0, 0, 0, 1));
         testGame.makeNextMove(new Line(1, 0, 1, 1));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(0, 1, 0, 2));
         testGame.makeNextMove(new Line(0, 2, 1, 2));
         testGame.makeNextMove(new Line(1, 1, 1, 2));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(0, 2, 0, 3));
         testGame.makeNextMove(new Line(0, 3, 1, 3));
         testGame.makeNextMove(new Line(1, 3, 1, 2));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(0, 3, 0, 4));
         testGame.makeNextMove(new Line(0, 4, 1, 4));
         testGame.makeNextMove(new Line(1, 4, 1, 3));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(1, 4, 2, 4));
         testGame.makeNextMove(new Line(2, 4, 2, 3));
         testGame.makeNextMove(new Line(1, 3, 2, 3));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(2, 3, 2, 2));
         testGame.makeNextMove(new Line(1, 2, 2, 2));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(2, 1, 2, 2));
         testGame.makeNextMove(new Line(2, 1, 1, 1));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(2, 1, 2, 0));
         testGame.makeNextMove(new Line(2, 0, 1, 0));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(2, 0, 3, 0));
         testGame.makeNextMove(new Line(3, 0, 3, 1));
         testGame.makeNextMove(new Line(3, 1, 2, 1));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(3, 1, 3, 2));
         testGame.makeNextMove(new Line(3, 2, 2, 2));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(3, 2, 3, 3));
         testGame.makeNextMove(new Line(3, 3, 2, 3));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(3, 4, 2, 4));
         testGame.makeNextMove(new Line(3, 3, 3, 4));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(3, 4, 4, 4));
         testGame.makeNextMove(new Line(4, 0, 3, 0));
         testGame.makeNextMove(new Line(4, 1, 4, 0));
         testGame.makeNextMove(new Line(4, 1, 3, 1));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(4, 1, 4, 2));
         testGame.makeNextMove(new Line(4, 2, 3, 2));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(4, 3, 4, 2));
         testGame.makeNextMove(new Line(4, 3, 3, 3));
-        testGame.updateScore();
         testGame.makeNextMove(new Line(4, 4, 4, 3));
-        testGame.updateScore();
         assertEquals(List.of("A"), testGame.winners());
     }
 
+    @Test
+    void aSingleLineCanCompleteTwoBoxes() throws InvalidInputException {
+        Game testGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        testGame.makeNextMove(new Line(0, 0, 1, 0));
+        testGame.makeNextMove(new Line(1, 0, 2, 0));
+        testGame.makeNextMove(new Line(0, 1, 1, 1));
+        testGame.makeNextMove(new Line(1, 1, 2, 1));
+        testGame.makeNextMove(new Line(0, 0, 0, 1));
+        testGame.makeNextMove(new Line(2, 0, 2, 1));
+        testGame.makeNextMove(new Line(1, 0, 1, 1));
+        assertEquals(2, testGame.getPlayerScore("A"));
+        assertEquals(0, testGame.getPlayerScore("B"));
+    }
+
     @Test
     void linesAreEqualDespiteEndpointsOrder() throws InvalidInputException {
         Line a = new Line(0, 1, 0, 0);
         Line b = new Line(0, 0, 0, 1);
         assertEquals(a, b);
     }
-}
\ No newline at end of file
+
+    @Test
+    void lineIdsMapBackToTheSameLine() throws InvalidInputException {
+        Board board = new Board(boardHeight, boardWidth);
+        for (int id = 0; id < board.totalLineCount(); id++) {
+            Line line = board.lineOf(id);
+            assertEquals(id, board.lineId(line));
+            assertEquals(id, board.lineId(line.p2().x(), line.p2().y(), line.p1().x(), line.p1().y()));
+        }
+        assertEquals(-1, board.lineId(new Line(0, 0, 1, 1)));
+        assertEquals(-1, board.lineId(new Line(4, 4, 5, 4)));
+    }
+
+    @Test
+    void snapshotsAreNotAffectedByLaterMoves() throws InvalidInputException {
+        Game testGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        testGame.makeNextMove(new Line(0, 0, 1, 0));
+        Board snapshot = testGame.boardSnapshot();
+        testGame.makeNextMove(new Line(0, 0, 0, 1));
+        assertTrue(snapshot.lineSitsBetween(new Point(0, 0), new Point(1, 0)));
+        assertFalse(snapshot.lineSitsBetween(new Point(0, 0), new Point(0, 1)));
+        assertTrue(testGame.boardSnapshot().lineSitsBetween(new Point(0, 0), new Point(0, 1)));
+        assertTrue(snapshot.version() < testGame.boardSnapshot().version());
+    }
+
+    @Test
+    void gameStateReflectsBoardTurnAndScores() throws InvalidInputException {
+        Game testGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        testGame.makeNextMove(new Line(0, 0, 1, 0));
+        testGame.makeNextMove(new Line(0, 1, 1, 1));
+        testGame.makeNextMove(new Line(0, 0, 0, 1));
+        testGame.makeNextMove(new Line(1, 0, 1, 1));
+        GameState state = testGame.state();
+        assertEquals(4, state.board().placedLineCount());
+        assertEquals("A", state.currentPlayer());
+        assertEquals(1, state.score(1));
+        testGame.makeNextMove(new Line(1, 1, 1, 2));
+        assertEquals("A", state.currentPlayer());
+        assertTrue(testGame.state().version() > state.version());
+    }
+
+    @Test
+    void boxesAreGroupedByTheirNumberOfSides() throws InvalidInputException {
+        Game testGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        testGame.makeNextMove(new Line(0, 0, 1, 0));
+        testGame.makeNextMove(new Line(0, 1, 1, 1));
+        testGame.makeNextMove(new Line(0, 0, 0, 1));
+        Board board = testGame.board();
+        assertEquals(1, board.boxCountWithSides(3));
+        assertEquals(board.boxId(0, 0), board.boxWithSides(3, 0));
+        assertEquals(1, board.boxCountWithSides(1));
+        assertEquals(board.boxId(0, 1), board.boxWithSides(1, 0));
+        assertEquals(board.boxCount() - 2, board.boxCountWithSides(0));
+        assertEquals(3, testGame.boardSnapshot().boxSideCount(board.boxId(0, 0)));
+    }
+
+    @Test
+    void undoingAMoveRestoresScoresAndTurn() throws InvalidInputException {
+        Game testGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        testGame.makeNextMove(new Line(0, 0, 1, 0));
+        testGame.makeNextMove(new Line(0, 1, 1, 1));
+        testGame.makeNextMove(new Line(0, 0, 0, 1));
+        testGame.makeNextMove(new Line(1, 0, 1, 1));
+        assertTrue(testGame.undoMove());
+        assertEquals(0, testGame.getPlayerScore("B"));
+        assertEquals("B", testGame.getCurrentPlayer());
+        assertFalse(testGame.board().isBoxCompleted(new Point(0, 0)));
+        assertEquals(1, testGame.board().boxCountWithSides(3));
+        assertTrue(testGame.redoMove());
+        assertEquals(1, testGame.getPlayerScore("B"));
+        assertTrue(testGame.board().isBoxCompleted(new Point(0, 0)));
+        assertFalse(testGame.redoMove());
+    }
+
+    @Test
+    void hugeBoardsCompleteBoxes() throws InvalidInputException {
+        Game testGame = new Game(3000, 3000, player1Name, player2Name);
+        assertTrue(testGame.board().isHuge());
+        testGame.makeNextMove(new Line(2998, 2998, 2999, 2998));
+        testGame.makeNextMove(new Line(2998, 2999, 2999, 2999));
+        testGame.makeNextMove(new Line(2998, 2998, 2998, 2999));
+        testGame.makeNextMove(new Line(2999, 2998, 2999, 2999));
+        assertTrue(testGame.board().isBoxCompleted(new Point(2998, 2998)));
+        assertEquals(1, testGame.board().boxCountWithSides(4));
+        assertEquals(1, testGame.getPlayerScore("B"));
+        assertFalse(testGame.hasEnded());
+    }
+
+    @Test
+    void boardsWithTheSameLinesAreEqualRegardlessOfMoveOrder() throws InvalidInputException {
+        Game firstGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        firstGame.makeNextMove(new Line(0, 0, 1, 0));
+        firstGame.makeNextMove(new Line(0, 0, 0, 1));
+        firstGame.makeNextMove(new Line(3, 3, 3, 4));
+        Game secondGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        secondGame.makeNextMove(new Line(3, 4, 3, 3));
+        secondGame.makeNextMove(new Line(0, 0, 0, 1));
+        secondGame.makeNextMove(new Line(1, 0, 0, 0));
+        assertEquals(firstGame.board().zobristHash(), secondGame.board().zobristHash());
+        assertEquals(firstGame.board(), secondGame.board());
+        assertEquals(firstGame.board().hashCode(), secondGame.board().hashCode());
+        secondGame.undoMove();
+        assertNotEquals(firstGame.board(), secondGame.board());
+        assertNotEquals(firstGame.board().zobristHash(), secondGame.board().zobristHash());
+    }
+
+    @Test
+    void rotatedPositionsShareTheCanonicalHash() throws InvalidInputException {
+        Game firstGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        firstGame.makeNextMove(new Line(0, 0, 1, 0));
+        firstGame.makeNextMove(new Line(1, 0, 1, 1));
+        Game secondGame = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        // the same lines, rotated by 90 degrees clockwise
+        secondGame.makeNextMove(new Line(4, 0, 4, 1));
+        secondGame.makeNextMove(new Line(4, 1, 3, 1));
+        Board board = firstGame.board();
+        assertNotEquals(board.zobristHash(), secondGame.board().zobristHash());
+        assertEquals(board.canonicalHash(), secondGame.board().canonicalHash());
+        Symmetry toCanonical = secondGame.board().canonicalSymmetry();
+        int canonicalMove = secondGame.board().transformLine(secondGame.board().lineId(4, 1, 3, 1), toCanonical);
+        assertEquals(new Line(3, 1, 4, 1), secondGame.board().lineOf(secondGame.board().transformLine(canonicalMove, toCanonical.inverse())));
+    }
+
+    @Test
+    void randomFreeLinesAreNeverPlacedTwice() throws InvalidInputException {
+        Game game = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        Random random = new Random(42);
+        Board board = game.board();
+        while (!game.hasEnded()) {
+            Board snapshot = game.boardSnapshot();
+            assertFalse(snapshot.isLinePlaced(snapshot.randomFreeLine(random)));
+            int id = board.randomFreeLine(random);
+            assertFalse(board.isLinePlaced(id));
+            game.makeNextMove(board.lineOf(id));
+        }
+        assertEquals(0, board.freeLineCount());
+        assertEquals(-1, board.randomFreeLine(random));
+    }
+
+    @Test
+    void safeAndCapturingLinesFollowTheBoxSides() throws InvalidInputException {
+        Game game = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        Board board = game.board();
+        assertEquals(board.totalLineCount(), board.safeLineCount());
+        assertEquals(-1, board.capturingLine());
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        // the other sides of the box still leave it with two sides at most
+        assertEquals(board.totalLineCount() - 1, board.safeLineCount());
+        game.makeNextMove(new Line(0, 0, 0, 1));
+        assertFalse(board.isSafeLine(board.lineId(0, 1, 1, 1)));
+        assertFalse(board.isSafeLine(board.lineId(1, 0, 1, 1)));
+        assertEquals(board.totalLineCount() - 4, board.safeLineCount());
+        game.makeNextMove(new Line(0, 1, 1, 1));
+        assertEquals(board.lineId(1, 0, 1, 1), board.capturingLine());
+        game.undoMove();
+        assertEquals(-1, board.capturingLine());
+        assertEquals(board.totalLineCount() - 4, board.safeLineCount());
+    }
+
+    @Test
+    void alphaBetaSearchTakesTheBoxAndSolvesSmallBoards() throws InvalidInputException {
+        Game game = new Game(3, 3, player1Name, player2Name);
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        game.makeNextMove(new Line(0, 0, 0, 1));
+        game.makeNextMove(new Line(0, 1, 1, 1));
+        Board board = game.board();
+        SearchResult result = new AlphaBetaSearch(board).search(System.nanoTime() + 5_000_000_000L);
+        assertEquals(board.lineId(1, 0, 1, 1), result.move());
+        assertEquals(board.freeLineCount(), result.depth());
+        assertEquals(result.move(), result.principalVariation()[0]);
+        assertEquals(3, board.placedLineCount());
+        // an expired deadline still lets the first iteration complete
+        assertEquals(1, new AlphaBetaSearch(board).search(System.nanoTime()).depth());
+    }
+
+    @Test
+    void transpositionTableKeepsTheSearchExact() throws InvalidInputException {
+        Game game = new Game(3, 3, player1Name, player2Name);
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        game.makeNextMove(new Line(2, 1, 2, 2));
+        TranspositionTable table = new TranspositionTable(1);
+        SearchResult withTable = new AlphaBetaSearch(game.board(), table).search(System.nanoTime() + 10_000_000_000L);
+        SearchResult withoutTable = new AlphaBetaSearch(game.board()).search(System.nanoTime() + 10_000_000_000L);
+        assertEquals(withoutTable.score(), withTable.score());
+        assertTrue(withTable.nodes() < withoutTable.nodes());
+        assertTrue(table.hits() > 0);
+        table.store(42, 7, -3, 5, TranspositionTable.LOWER_BOUND);
+        long data = table.probe(42);
+        assertEquals(7, TranspositionTable.move(data));
+        assertEquals(-3, TranspositionTable.score(data));
+        assertEquals(5, TranspositionTable.depth(data));
+        assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.bound(data));
+    }
+
+    @Test
+    void monteCarloTreeSearchTakesTheBox() throws InvalidInputException {
+        Game game = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        game.makeNextMove(new Line(0, 0, 0, 1));
+        game.makeNextMove(new Line(0, 1, 1, 1));
+        Board board = game.board();
+        SearchResult result = new MonteCarloTreeSearch(board, 1 << 16, new Random(42)).search(Long.MAX_VALUE, 2000);
+        assertEquals(board.lineId(1, 0, 1, 1), result.move());
+        assertEquals(2000, result.nodes());
+        assertEquals(3, board.placedLineCount());
+    }
+
+    @Test
+    void parallelMonteCarloTreeSearchMergesThePlayoutsOfEveryThread() throws Exception {
+        Game game = new Game(boardHeight, boardWidth, player1Name, player2Name);
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        game.makeNextMove(new Line(0, 0, 0, 1));
+        game.makeNextMove(new Line(0, 1, 1, 1));
+        Board board = game.board();
+        SearchResult result = new ParallelMonteCarloTreeSearch(board, 1 << 16, 4).search(Long.MAX_VALUE, 40000);
+        assertEquals(board.lineId(1, 0, 1, 1), result.move());
+        assertEquals(40000, result.nodes());
+    }
+
+    @Test
+    void chainAnalyzerSolvesEndgamesLikeTheFullSearch() throws InvalidInputException {
+        Game game = new Game(3, 3, player1Name, player2Name);
+        // leaves a loop of the four boxes around the centre, whose inner lines are all free
+        for (Line line : List.of(new Line(0, 0, 1, 0), new Line(1, 0, 2, 0), new Line(0, 2, 1, 2), new Line(1, 2, 2, 2),
+                new Line(0, 0, 0, 1), new Line(0, 1, 0, 2), new Line(2, 0, 2, 1), new Line(2, 1, 2, 2))) {
+            game.makeNextMove(line);
+        }
+        Board board = game.board();
+        assertTrue(ChainAnalyzer.qualifies(board));
+        SearchResult analysis = new ChainAnalyzer(1 << 10).analyze(board, Long.MAX_VALUE);
+        SearchResult search = new AlphaBetaSearch(board).search(Long.MAX_VALUE);
+        assertEquals(search.score(), analysis.score());
+        assertFalse(board.isLinePlaced(analysis.move()));
+        game.makeNextMove(board.lineOf(analysis.move()));
+        assertNull(new ChainAnalyzer(1 << 10).analyze(new Game(3, 3, player1Name, player2Name).board(), Long.MAX_VALUE));
+        // random endgames, drawing safe lines until none is left and then a few more to split chains and open loops
+        Random random = new Random(17);
+        ChainAnalyzer analyzer = new ChainAnalyzer(1 << 16);
+        TranspositionTable table = new TranspositionTable(1);
+        int checked = 0, withSeveralComponents = 0, withShortChains = 0;
+        for (int i = 0; checked < 20; i++) {
+            game = new Game(3 + i % 2, 4, player1Name, player2Name);
+            board = game.board();
+            while (board.safeLineCount() > 0) {
+                game.makeNextMove(board.lineOf(board.randomSafeLine(random)));
+            }
+            for (int extra = random.nextInt(3); extra > 0 && board.freeLineCount() > 1; extra--) {
+                game.makeNextMove(board.lineOf(board.randomFreeLine(random)));
+            }
+            if (!ChainAnalyzer.qualifies(board) || board.freeLineCount() == 0) {
+                continue;
+            }
+            checked++;
+            int[] componentSizes = componentSizes(board);
+            if (componentSizes.length > 1) {
+                withSeveralComponents++;
+            }
+            if (Arrays.stream(componentSizes).anyMatch(size -> size <= 2)) {
+                withShortChains++;
+            }
+            analysis = analyzer.analyze(board, Long.MAX_VALUE);
+            assertEquals(new AlphaBetaSearch(board, table).search(Long.MAX_VALUE).score(), analysis.score());
+            int completed = 0;
+            int[] boxes = new int[2];
+            for (int j = 0, count = board.adjacentBoxes(analysis.move(), boxes); j < count; j++) {
+                if (board.boxSideCount(boxes[j]) == 3) {
+                    completed++;
+                }
+            }
+            game.makeNextMove(board.lineOf(analysis.move()));
+            assertEquals(analysis.score(), completed - new AlphaBetaSearch(board, table).search(Long.MAX_VALUE).score());
+        }
+        assertTrue(withSeveralComponents > 0);
+        assertTrue(withShortChains > 0);
+    }
+
+    /**
+     * @return the number of open boxes of every group of open boxes joined by free lines.
+     */
+    private static int[] componentSizes(Board board) {
+        int[] parents = new int[board.boxCount()];
+        for (int box = 0; box < parents.length; box++) {
+            parents[box] = box;
+        }
+        int[] boxes = new int[2];
+        for (int i = 0; i < board.freeLineCount(); i++) {
+            if (board.adjacentBoxes(board.freeLineAt(i), boxes) == 2) {
+                parents[root(parents, boxes[0])] = root(parents, boxes[1]);
+            }
+        }
+        int[] sizes = new int[board.boxCount()];
+        for (int box = 0; box < parents.length; box++) {
+            if (board.boxSideCount(box) < 4) {
+                sizes[root(parents, box)]++;
+            }
+        }
+        return Arrays.stream(sizes).filter(size -> size > 0).toArray();
+    }
+
+    private static int root(int[] parents, int box) {
+        while (parents[box] != box) {
+            box = parents[box];
+        }
+        return box;
+    }
+
+    @Test
+    void endgameTablebaseAgreesWithTheFullSearch() throws IOException, InvalidInputException {
+        Path file = Files.createTempFile("tablebase", ".dbtb");
+        try {
+            EndgameTablebase.generate(3, 4, file);
+            // only the canonical positions of the 17 lines are stored
+            assertTrue(Files.size(file) < 1 << 16);
+            EndgameTablebase tablebase = EndgameTablebase.open(file);
+            Random random = new Random(18);
+            for (int i = 0; i < 20; i++) {
+                Game game = new Game(3, 4, player1Name, player2Name);
+                Board board = game.board();
+                while (board.freeLineCount() > 9) {
+                    game.makeNextMove(board.lineOf(board.randomFreeLine(random)));
+                }
+                SearchResult lookup = tablebase.search(board);
+                assertEquals(new AlphaBetaSearch(board).search(Long.MAX_VALUE).score(), lookup.score());
+                assertEquals(lookup.score(), tablebase.value(board));
+                assertFalse(board.isLinePlaced(lookup.move()));
+            }
+            Board otherSize = new Game(3, 3, player1Name, player2Name).board();
+            assertThrows(IllegalArgumentException.class, () -> tablebase.search(otherSize));
+            assertThrows(IllegalArgumentException.class, () -> tablebase.value(otherSize));
+            EndgameTablebase.generate(2, 2, file);
+            Board smallest = new Game(2, 2, player1Name, player2Name).board();
+            assertEquals(new AlphaBetaSearch(smallest).search(Long.MAX_VALUE).score(), EndgameTablebase.open(file).value(smallest));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void cancelledAlphaBetaSearchReturnsAtOnce() throws InterruptedException, InvalidInputException {
+        Board board = new Game(boardHeight, boardWidth, player1Name, player2Name).board();
+        AlphaBetaSearch search = new AlphaBetaSearch(board, new TranspositionTable(1));
+        CancelToken cancelToken = new CancelToken();
+        Thread thread = Thread.ofVirtual().start(() -> search.search(Long.MAX_VALUE, cancelToken));
+        Thread.sleep(50);
+        cancelToken.cancel();
+        thread.join(Duration.ofSeconds(5));
+        assertFalse(thread.isAlive());
+        assertEquals(-1, new AlphaBetaSearch(board).search(Long.MAX_VALUE, cancelToken).move());
+    }
+
+    @Test
+    void cancelledMoveEnginesAnswerWithoutSearching() throws InvalidInputException, InterruptedException {
+        Board board = new Game(boardHeight, boardWidth, player1Name, player2Name).board();
+        CancelToken cancelToken = new CancelToken();
+        cancelToken.cancel();
+        MoveEngine monteCarlo = (position, deadlineNanos, token) ->
+                new MonteCarloTreeSearch(position, 1 << 10).search(deadlineNanos, Long.MAX_VALUE, token);
+        SearchResult result = monteCarlo.search(board, Long.MAX_VALUE, cancelToken);
+        assertEquals(1, result.nodes());
+        assertFalse(board.isLinePlaced(result.move()));
+        result = new ParallelMonteCarloTreeSearch(board, 1 << 10, 2).search(Long.MAX_VALUE, Long.MAX_VALUE, cancelToken);
+        assertEquals(2, result.nodes());
+    }
+
+    @Test
+    void parallelAlphaBetaSearchSolvesSmallBoardsLikeTheSingleThreadedOne() throws InvalidInputException, InterruptedException {
+        Game game = new Game(3, 3, player1Name, player2Name);
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        Board board = game.board();
+        SearchResult expected = new AlphaBetaSearch(board).search(Long.MAX_VALUE);
+        SearchResult result = new ParallelAlphaBetaSearch(board, new TranspositionTable(1), 4)
+                .search(Long.MAX_VALUE, new CancelToken());
+        assertEquals(expected.score(), result.score());
+        assertEquals(board.freeLineCount(), result.depth());
+        assertFalse(board.isLinePlaced(result.move()));
+    }
+
+    @Test
+    void parallelAlphaBetaSearchReportsWhatFailedHelpersThrow() throws InvalidInputException {
+        Board board = new Game(4, 4, player1Name, player2Name).board();
+        RuntimeException failure = new RuntimeException("helper failure");
+        Evaluation failingOnHelpers = new Evaluation(new double[Evaluation.FEATURE_COUNT]) {
+            @Override
+            public int evaluate(double[] features) {
+                if (Thread.currentThread().getName().startsWith("alpha-beta-")) {
+                    throw failure;
+                }
+                return super.evaluate(features);
+            }
+        };
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> new ParallelAlphaBetaSearch(board, new TranspositionTable(1), failingOnHelpers, 2)
+                        .search(System.nanoTime() + Duration.ofMillis(200).toNanos(), new CancelToken()));
+        assertSame(failure, thrown.getCause());
+    }
+
+    @Test
+    void parallelMonteCarloTreeSearchReportsWhatFailedThreadsThrow() throws InvalidInputException {
+        Board board = new Game(4, 4, player1Name, player2Name).board();
+        RuntimeException failure = new RuntimeException("search failure");
+        CancelToken failingOnOneThread = new CancelToken() {
+            @Override
+            public boolean isCancelled() {
+                if (Thread.currentThread().getName().equals("mcts-1")) {
+                    throw failure;
+                }
+                return super.isCancelled();
+            }
+        };
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> new ParallelMonteCarloTreeSearch(board, 1 << 10, 2).search(Long.MAX_VALUE, 2000, failingOnOneThread));
+        assertSame(failure, thrown.getCause());
+    }
+
+    @Test
+    void proofNumberSearchSolvesPositionsExactly() throws InvalidInputException {
+        Game game = new Game(3, 3, player1Name, player2Name);
+        game.makeNextMove(new Line(0, 0, 1, 0));
+        game.makeNextMove(new Line(1, 1, 2, 1));
+        Board board = game.board();
+        int expected = new AlphaBetaSearch(board).search(Long.MAX_VALUE).score();
+        ProofNumberSearch solver = new ProofNumberSearch(board, 1, new TranspositionTable(1));
+        SearchResult result = solver.solve(Long.MAX_VALUE, new CancelToken());
+        assertEquals(expected, result.score());
+        int boxes = (expected + board.boxCount()) / 2;
+        assertEquals(ProofNumberSearch.Answer.YES, solver.prove(boxes, Long.MAX_VALUE, new CancelToken()));
+        assertEquals(ProofNumberSearch.Answer.NO, solver.prove(boxes + 1, Long.MAX_VALUE, new CancelToken()));
+        game.makeNextMove(board.lineOf(result.move()));
+        assertEquals(-expected, new AlphaBetaSearch(game.board()).search(Long.MAX_VALUE).score());
+    }
+
+    @Test
+    void regionSolverRecognizesRegionsWhereverTheyLie() throws InvalidInputException {
+        Game game = new Game(3, 5, player1Name, player2Name);
+        // splits the board into two mirrored regions of four boxes
+        for (Line line : List.of(new Line(2, 0, 2, 1), new Line(2, 1, 2, 2), new Line(0, 0, 1, 0), new Line(1, 0, 2, 0),
+                new Line(2, 0, 3, 0), new Line(3, 0, 4, 0), new Line(0, 2, 1, 2), new Line(3, 2, 4, 2))) {
+            game.makeNextMove(line);
+        }
+        Board board = game.board();
+        RegionDecomposition decomposition = new RegionDecomposition(board);
+        assertEquals(2, decomposition.decompose());
+        assertEquals(decomposition.regionHash(0), decomposition.regionHash(1));
+        RegionValueCache cache = new RegionValueCache(1 << 16);
+        SearchResult result = new RegionSolver(cache).solve(board, Long.MAX_VALUE, new CancelToken());
+        assertEquals(new AlphaBetaSearch(board, new TranspositionTable(1)).search(Long.MAX_VALUE).score(), result.score());
+        assertEquals(result.score(), (int) cache.get(decomposition.positionKey()));
+        assertFalse(board.isLinePlaced(result.move()));
+        // the decomposition follows the lines drawn and taken back as a fresh one would find it
+        long key = decomposition.positionKey();
+        Random random = new Random(23);
+        while (!game.hasEnded()) {
+            int line = board.randomFreeLine(random);
+            game.makeNextMove(board.lineOf(line));
+            RegionDecomposition fresh = new RegionDecomposition(board);
+            assertEquals(fresh.decompose(), decomposition.linePlaced(line));
+            assertEquals(fresh.positionKey(), decomposition.positionKey());
+        }
+        while (board.placedLineCount() > 8) {
+            int line = board.placedLineAt(board.placedLineCount() - 1);
+            game.undoMove();
+            decomposition.lineRemoved(line);
+        }
+        assertEquals(key, decomposition.positionKey());
+    }
+
+    @Test
+    void tunedEvaluationBeatsTheDefaultOnUnseenPositionsAndSurvivesItsFile() throws IOException, InterruptedException, InvalidInputException {
+        Evaluation evaluation = EvaluationTuner.tune(3, 3, 2000, 100_000, 2, 24);
+        Path file = Files.createTempFile("evaluation", ".properties");
+        try {
+            evaluation.save(file, null);
+            assertEquals(evaluation, Evaluation.load(file));
+            Files.writeString(file, "UNKNOWN_FEATURE=1");
+            assertThrows(IOException.class, () -> Evaluation.load(file));
+        } finally {
+            Files.delete(file);
+        }
+        // the fitted weights estimate positions they have not been fitted to better than the default ones
+        Random random = new Random(24);
+        TranspositionTable table = new TranspositionTable(1);
+        double[] features = new double[Evaluation.FEATURE_COUNT];
+        long tunedError = 0, defaultError = 0;
+        for (int i = 0; i < 200; i++) {
+            Game game = new Game(3, 3, player1Name, player2Name);
+            Board board = game.board();
+            int freeLineCount = 6 + random.nextInt(10);
+            while (board.freeLineCount() > freeLineCount) {
+                game.makeNextMove(board.lineOf(board.randomFreeLine(random)));
+            }
+            int score = new AlphaBetaSearch(board, table).search(Long.MAX_VALUE).score();
+            new FeatureExtractor(board).extract(features, true);
+            int tunedDifference = evaluation.evaluate(features) - score;
+            int defaultDifference = Evaluation.DEFAULT.evaluate(features) - score;
+            tunedError += (long) tunedDifference * tunedDifference;
+            defaultError += (long) defaultDifference * defaultDifference;
+        }
+        assertTrue(tunedError < defaultError);
+        assertTrue(evaluation.weight(Evaluation.Feature.CAPTURE_AVAILABLE) > 0);
+        for (int i = 0; i < 10; i++) {
+            Game game = new Game(3, 4, player1Name, player2Name);
+            Board board = game.board();
+            while (board.freeLineCount() > 10) {
+                game.makeNextMove(board.lineOf(board.randomFreeLine(random)));
+            }
+            // a search reaching the end of the game never evaluates a position
+            assertEquals(new AlphaBetaSearch(board).search(Long.MAX_VALUE).score(),
+                    new AlphaBetaSearch(board, null, evaluation).search(Long.MAX_VALUE).score());
+        }
+    }
+
+    @Test
+    void multiPlayerSearchesSolveSmallBoards() throws InvalidInputException {
+        Random random = new Random(25);
+        for (int i = 0; i < 4; i++) {
+            Game game = new Game(3, 4, "A", "B", "C");
+            Board board = game.board();
+            while (board.freeLineCount() > 7) {
+                game.makeNextMove(board.lineOf(board.randomFreeLine(random)));
+            }
+            SearchResult paranoid = new MultiPlayerSearch(board, 3, MultiPlayerSearch.Mode.PARANOID)
+                    .search(Long.MAX_VALUE, new CancelToken());
+            assertEquals(paranoidValue(game, 0, 3), paranoid.score());
+            assertFalse(board.isLinePlaced(paranoid.move()));
+            SearchResult maxN = new MultiPlayerSearch(board, 3, MultiPlayerSearch.Mode.MAX_N)
+                    .search(Long.MAX_VALUE, new CancelToken());
+            assertEquals(board.freeLineCount(), maxN.depth());
+            assertFalse(board.isLinePlaced(maxN.move()));
+            int[] outcome = maxNOutcome(game, 0, 3);
+            assertEquals(outcome[0] - outcome[1] - outcome[2], maxN.score());
+            assertEquals(outcome[3], maxN.move());
+            int completed = 0;
+            int[] boxes = new int[2];
+            for (int j = 0, count = board.adjacentBoxes(maxN.move(), boxes); j < count; j++) {
+                if (board.boxSideCount(boxes[j]) == 3) {
+                    completed++;
+                }
+            }
+            game.makeNextMove(board.lineOf(maxN.move()));
+            assertEquals(outcome[0], completed + maxNOutcome(game, 1, 3)[0]);
+            game.undoMove();
+            // with two players both searches reduce to alpha-beta
+            int twoPlayerScore = new AlphaBetaSearch(board).search(Long.MAX_VALUE).score();
+            for (MultiPlayerSearch.Mode mode : MultiPlayerSearch.Mode.values()) {
+                assertEquals(twoPlayerScore, new MultiPlayerSearch(board, 2, mode).search(Long.MAX_VALUE, new CancelToken()).score());
+            }
+        }
+    }
+
+    /**
+     * @return the boxes each seat completes if every one maximizes its own, preferring the line with the smallest id,
+     * followed by the line chosen, -1 if the board is full.
+     */
+    private static int[] maxNOutcome(Game game, int seat, int playerCount) throws InvalidInputException {
+        Board board = game.board();
+        int[] best = new int[playerCount + 1];
+        best[playerCount] = -1;
+        if (board.freeLineCount() == 0) {
+            return best;
+        }
+        int[] freeLines = new int[board.freeLineCount()];
+        for (int i = 0; i < freeLines.length; i++) {
+            freeLines[i] = board.freeLineAt(i);
+        }
+        Arrays.sort(freeLines);
+        int[] boxes = new int[2];
+        boolean found = false;
+        for (int line : freeLines) {
+            int completed = 0;
+            for (int j = 0, count = board.adjacentBoxes(line, boxes); j < count; j++) {
+                if (board.boxSideCount(boxes[j]) == 3) {
+                    completed++;
+                }
+            }
+            game.makeNextMove(board.lineOf(line));
+            int[] outcome = maxNOutcome(game, (seat + 1) % playerCount, playerCount);
+            game.undoMove();
+            outcome[seat] += completed;
+            if (!found || outcome[seat] > best[seat]) {
+                best = outcome;
+                best[playerCount] = line;
+                found = true;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the boxes seat 0 completes more than all the others together, if they all play against it.
+     */
+    private static int paranoidValue(Game game, int seat, int playerCount) throws InvalidInputException {
+        Board board = game.board();
+        if (board.freeLineCount() == 0) {
+            return 0;
+        }
+        int[] freeLines = new int[board.freeLineCount()];
+        for (int i = 0; i < freeLines.length; i++) {
+            freeLines[i] = board.freeLineAt(i);
+        }
+        int best = seat == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        int[] boxes = new int[2];
+        for (int line : freeLines) {
+            int completed = 0;
+            for (int j = 0, count = board.adjacentBoxes(line, boxes); j < count; j++) {
+                if (board.boxSideCount(boxes[j]) == 3) {
+                    completed++;
+                }
+            }
+            game.makeNextMove(board.lineOf(line));
+            int value = (seat == 0 ? completed : -completed) + paranoidValue(game, (seat + 1) % playerCount, playerCount);
+            game.undoMove();
+            best = seat == 0 ? Math.max(best, value) : Math.min(best, value);
+        }
+        return best;
+    }
+
+    @Test
+    void everyStateCreditsTheBoxesCompletedOnItsBoard() throws Exception {
+        Game game = new Game(4, 4, player1Name, player2Name);
+        Board board = game.board();
+        AtomicBoolean playing = new AtomicBoolean(true);
+        AtomicInteger inconsistentReads = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (playing.get()) {
+                GameState state = game.state();
+                int completedBoxes = 0;
+                for (int box = 0; box < state.board().boxCount(); box++) {
+                    if (state.board().boxSideCount(box) == 4) {
+                        completedBoxes++;
+                    }
+                }
+                if (completedBoxes != Arrays.stream(state.scores()).sum()) {
+                    inconsistentReads.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        Random random = new Random(5);
+        try {
+            for (int i = 0; i < 200; i++) {
+                while (!game.hasEnded()) {
+                    game.makeNextMove(board.lineOf(board.randomFreeLine(random)));
+                }
+                while (game.undoMove()) ;
+            }
+        } finally {
+            playing.set(false);
+            reader.join();
+        }
+        assertEquals(0, inconsistentReads.get());
+    }
+}
@@ -0,0 +1,94 @@
+package it.units.sdm.dotsandboxes.benchmarks;
+
+import it.units.sdm.dotsandboxes.core.Board;
+import it.units.sdm.dotsandboxes.core.Game;
+import it.units.sdm.dotsandboxes.core.GameState;
+import it.units.sdm.dotsandboxes.core.Line;
+import it.units.sdm.dotsandboxes.exceptions.InvalidInputException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmark measuring how the throughput of consistent game state reads scales with the number of reader threads,
+ * while a single writer keeps playing moves as fast as it can.
+ * <p>
+ * Usage: {@code gradle benchmark -Pbenchmark=GameStateReadBenchmark [-Pargs="<milliseconds per run> <board size>"]}
+ */
+public class GameStateReadBenchmark {
+
+    private static volatile Game currentGame;
+    private static volatile boolean running;
+
+    public static void main(String... args) throws Exception {
+        final long duration = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        final int boardSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        final int maxReaders = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %16s %16s %16s%n", "readers", "reads/s", "reads/s/reader", "writes/s");
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            run(readers, duration, boardSize);
+        }
+    }
+
+    private static void run(int readerCount, long duration, int boardSize) throws Exception {
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        // consumes what the readers read, so that the reads cannot be optimized away
+        final LongAdder checksum = new LongAdder();
+        currentGame = new Game(boardSize, boardSize, "A", "B");
+        running = true;
+        final Thread writer = new Thread(() -> write(boardSize, writes));
+        final List<Thread> readers = new ArrayList<>(readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            readers.add(new Thread(() -> {
+                long count = 0, sum = 0;
+                while (running) {
+                    final GameState state = currentGame.state();
+                    sum += state.version() + state.score(state.currentPlayerIndex());
+                    count++;
+                }
+                reads.add(count);
+                checksum.add(sum);
+            }));
+        }
+        readers.forEach(Thread::start);
+        writer.start();
+        Thread.sleep(duration);
+        running = false;
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        final double seconds = duration / 1000.0;
+        System.out.printf("%-8d %16.0f %16.0f %16.0f%n", readerCount, reads.sum() / seconds,
+                reads.sum() / seconds / readerCount, writes.sum() / seconds);
+    }
+
+    private static void write(int boardSize, LongAdder writes) {
+        final Board template = new Board(boardSize, boardSize);
+        final List<Line> moves = new ArrayList<>(template.totalLineCount());
+        for (int id = 0; id < template.totalLineCount(); id++) {
+            moves.add(template.lineOf(id));
+        }
+        long count = 0;
+        try {
+            while (running) {
+                final Game game = new Game(boardSize, boardSize, "A", "B");
+                currentGame = game;
+                Collections.shuffle(moves);
+                for (Line move : moves) {
+                    if (!running) {
+                        break;
+                    }
+                    game.makeNextMove(move);
+                    count++;
+                }
+            }
+        } catch (InvalidInputException e) {
+            throw new RuntimeException(e);
+        }
+        writes.add(count);
+    }
+}
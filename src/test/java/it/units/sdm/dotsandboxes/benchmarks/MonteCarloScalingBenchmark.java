@@ -0,0 +1,32 @@
+package it.units.sdm.dotsandboxes.benchmarks;
+
+import it.units.sdm.dotsandboxes.core.Board;
+import it.units.sdm.dotsandboxes.core.ParallelMonteCarloTreeSearch;
+import it.units.sdm.dotsandboxes.core.SearchResult;
+
+/**
+ * Benchmark measuring how the playouts per second of the parallel Monte Carlo Tree Search scale with the number
+ * of threads, searching the empty board.
+ * <p>
+ * Usage: {@code gradle benchmark -Pbenchmark=MonteCarloScalingBenchmark [-Pargs="<milliseconds per run> <board size>"]}
+ */
+public class MonteCarloScalingBenchmark {
+
+    private static final int MAX_NODES = 1 << 22;
+
+    public static void main(String... args) throws Exception {
+        final long duration = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        final int boardSize = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        final int maxThreads = Runtime.getRuntime().availableProcessors();
+        final Board board = new Board(boardSize, boardSize);
+        // lets the JIT compile the playouts before measuring
+        new ParallelMonteCarloTreeSearch(board, MAX_NODES, 1).search(System.nanoTime() + duration * 1_000_000, Long.MAX_VALUE);
+        System.out.printf("%-8s %16s %16s %8s%n", "threads", "playouts/s", "playouts/s/thread", "depth");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final SearchResult result = new ParallelMonteCarloTreeSearch(board, MAX_NODES, threads)
+                    .search(System.nanoTime() + duration * 1_000_000, Long.MAX_VALUE);
+            System.out.printf("%-8d %16d %16d %8d%n", threads, result.nodesPerSecond(),
+                    result.nodesPerSecond() / threads, result.depth());
+        }
+    }
+}